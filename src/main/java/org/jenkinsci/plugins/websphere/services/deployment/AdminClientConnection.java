@@ -0,0 +1,243 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.websphere.management.AdminClient;
+import com.ibm.websphere.management.AdminClientFactory;
+import com.ibm.websphere.management.application.AppManagement;
+import com.ibm.websphere.management.application.AppManagementProxy;
+
+/**
+ * An {@link AdminClient} together with the connector configuration it was
+ * created from and the bookkeeping needed to pool it.
+ */
+public class AdminClientConnection {
+
+    private static Logger log = Logger.getLogger(AdminClientConnection.class.getName());
+
+    private static final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "WebSphere connection heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final Object createLock = new Object();
+    private static final SystemPropertiesGuard systemProperties = new SystemPropertiesGuard(System.getProperties());
+    private static final long PROFILE_RETRY_INTERVAL = 1000;
+    private static final long profileTimeout = TimeUnit.SECONDS.toMillis(Long.getLong(AdminClientConnection.class.getName()+".sslProfileTimeoutSeconds", 300));
+
+    private final AdminClient client;
+    private final AdminClientPool.Key key;
+    private final long created;
+    private volatile long lastUsed;
+    private volatile long lastAlive;
+    private ScheduledFuture<?> heartbeat;
+    private AppManagement appManagement;
+    private NotificationDispatcher notificationDispatcher;
+    private boolean holdsSystemProperties;
+    private Object sslProfile;
+
+    public AdminClientConnection(AdminClient client, AdminClientPool.Key key) {
+        this.client = client;
+        this.key = key;
+        this.created = System.currentTimeMillis();
+        this.lastUsed = created;
+        this.lastAlive = created; //creating the client already talked to the server
+    }
+
+    /**
+     * Creates a new connection for the given configuration.
+     * <p>
+     * All per-connection settings, SSL included, travel in the connector
+     * properties. The IBM admin client still copies SSL and ORB settings into JVM
+     * system properties while it sets itself up, and reads some of them lazily on
+     * its first remote call, so that can't be undone right away. Instead:
+     * <ul>
+     *   <li>creation is serialized, so concurrent deployments don't interleave their changes;</li>
+     *   <li>connections with different SSL settings are never open at the same time:
+     *   idle pooled connections with other settings are closed, and in-use ones
+     *   are waited for (see {@link SystemPropertiesGuard});</li>
+     *   <li>the properties are put back as they were once the last open connection is closed.</li>
+     * </ul>
+     *
+     * @see <a href="https://github.com/jenkinsci/websphere-deployer-plugin/pull/11">
+     *   GitHub discussion</a> for a reference.
+     */
+    public static AdminClientConnection open(AdminClientPool.Key key) throws Exception {
+        Object profile = key.getSslProfile();
+        if(systemProperties.isBlocked(profile)) {
+            AdminClientPool.getInstance().evictOtherSslProfiles(profile);
+        }
+        long deadline = System.currentTimeMillis() + profileTimeout;
+        // connections released to the pool keep their settings, so retry evicting them
+        while(!systemProperties.acquire(profile, PROFILE_RETRY_INTERVAL)) {
+            if(System.currentTimeMillis() >= deadline) {
+                throw new DeploymentServiceException("Timed out waiting for connections with different SSL settings to close before connecting to "+key.getHost());
+            }
+            AdminClientPool.getInstance().evictOtherSslProfiles(profile);
+        }
+        AdminClient client = null;
+        try {
+            synchronized(createLock) {
+                client = AdminClientFactory.createAdminClient(key.getConfig());
+            }
+        } finally {
+            if(client == null) {
+                systemProperties.release(profile);
+            }
+        }
+        if(client == null) {
+            throw new DeploymentServiceException("Unable to connect to IBM WebSphere Application Server @ "+key.getHost());
+        }
+        AdminClientConnection connection = new AdminClientConnection(client, key);
+        connection.sslProfile = profile;
+        connection.holdsSystemProperties = true;
+        return connection;
+    }
+
+    public AdminClient getClient() {
+        return client;
+    }
+
+    /**
+     * Returns the AppManagement MBean proxy for this connection, resolving the
+     * MBean only on first use.
+     */
+    public synchronized AppManagement getAppManagement() throws Exception {
+        if(appManagement == null) {
+            appManagement = AppManagementProxy.getJMXProxyForClient(client);
+        }
+        return appManagement;
+    }
+
+    public synchronized boolean hasAppManagement() {
+        return appManagement != null;
+    }
+
+    /**
+     * Returns the dispatcher that shares one AppManagement notification
+     * subscription between all operations on this connection.
+     */
+    public synchronized NotificationDispatcher getNotificationDispatcher() {
+        if(notificationDispatcher == null) {
+            notificationDispatcher = new NotificationDispatcher(client);
+        }
+        return notificationDispatcher;
+    }
+
+    /**
+     * Drops the notification subscription, e.g. while the connection sits idle in the pool.
+     */
+    public synchronized void closeNotifications() {
+        if(notificationDispatcher != null) {
+            notificationDispatcher.close();
+            notificationDispatcher = null;
+        }
+    }
+
+    public AdminClientPool.Key getKey() {
+        return key;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the last time the server was known to be reachable
+     */
+    public long getLastAlive() {
+        return lastAlive;
+    }
+
+    /**
+     * Performs a remote round-trip to the connected process and records the
+     * result.
+     *
+     * @return true if the server answered
+     */
+    public boolean probe() {
+        try {
+            if(client.isAlive() != null) {
+                lastAlive = System.currentTimeMillis();
+                return true;
+            }
+            return false;
+        } catch(Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Answers from the last known liveness state if it is younger than
+     * <code>freshness</code> milliseconds, otherwise falls back to a
+     * {@link #probe()}.
+     */
+    public boolean isAlive(long freshness) {
+        if(System.currentTimeMillis() - lastAlive <= freshness) {
+            return true;
+        }
+        return probe();
+    }
+
+    /**
+     * Starts probing the server in the background every <code>interval</code>
+     * milliseconds, keeping the liveness state fresh while the connection is in use.
+     */
+    public synchronized void startHeartbeat(long interval) {
+        stopHeartbeat();
+        heartbeat = heartbeats.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                probe();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopHeartbeat() {
+        if(heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+    }
+
+    /**
+     * Releases the client side resources held by this connection. The SOAP
+     * connector has no explicit close, so this only drops the cached
+     * connector properties (including credentials) and, if this was the last
+     * open connection, restores the system properties the client changed.
+     */
+    public void close() {
+        stopHeartbeat();
+        closeNotifications();
+        try {
+            client.getConnectorProperties().clear();
+        } catch(Exception e) {
+            log.log(Level.WARNING, "Failed to release connection to "+key.getHost(), e);
+        } finally {
+            releaseSystemProperties();
+        }
+    }
+
+    private synchronized void releaseSystemProperties() {
+        if(holdsSystemProperties) {
+            holdsSystemProperties = false;
+            systemProperties.release(sslProfile);
+        }
+    }
+}
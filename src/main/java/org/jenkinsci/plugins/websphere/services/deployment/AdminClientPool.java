@@ -0,0 +1,366 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.ibm.websphere.management.AdminClient;
+
+/**
+ * Keeps {@link AdminClient} connections open between builds so that repeated
+ * deployments to the same deployment manager don't pay for the SOAP handshake
+ * and security setup every time.
+ * <p>
+ * Connections are keyed by their complete connector configuration (host, port,
+ * connector type, credentials and SSL settings), so a connection is only ever
+ * handed out to a caller that would have created an identical one.
+ * <p>
+ * The pool can be tuned with the following system properties:
+ * <ul>
+ *   <li><code>maxConnectionsPerHost</code>: open connections allowed per deployment manager (default 4)</li>
+ *   <li><code>idleTimeoutMinutes</code>: idle connections older than this are discarded (default 10)</li>
+ *   <li><code>leaseTimeoutSeconds</code>: how long to wait for a free connection (default 300)</li>
+ * </ul>
+ * each prefixed with the fully qualified name of this class.
+ */
+public class AdminClientPool {
+
+    private static final String className = AdminClientPool.class.getName();
+    private static Logger log = Logger.getLogger(className);
+    private static final AdminClientPool INSTANCE = new AdminClientPool();
+
+    private final int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private final long leaseTimeout;
+
+    private final Map<Key,LinkedList<AdminClientConnection>> idle = new HashMap<Key,LinkedList<AdminClientConnection>>();
+    private final Map<String,Integer> open = new HashMap<String,Integer>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+
+    private AdminClientPool() {
+        this(Integer.getInteger(className+".maxConnectionsPerHost", 4),
+                TimeUnit.MINUTES.toMillis(Long.getLong(className+".idleTimeoutMinutes", 10)),
+                TimeUnit.SECONDS.toMillis(Long.getLong(className+".leaseTimeoutSeconds", 300)));
+    }
+
+    /**
+     * @param idleTimeout in milliseconds
+     * @param leaseTimeout in milliseconds
+     */
+    AdminClientPool(int maxConnectionsPerHost, long idleTimeout, long leaseTimeout) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public static AdminClientPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Hands out a live connection for the given configuration, creating one if
+     * no idle connection is available. Blocks while the deployment manager
+     * already has the maximum number of connections open.
+     */
+    public AdminClientConnection lease(Key key) throws Exception {
+        long deadline = System.currentTimeMillis() + leaseTimeout;
+        while(true) {
+            AdminClientConnection candidate = reserve(key, deadline);
+            if(candidate == null) {
+                return create(key);
+            }
+            if(candidate.probe()) {
+                candidate.touch();
+                hits.incrementAndGet();
+                return candidate;
+            }
+            failedProbes.incrementAndGet();
+            log.fine("Discarding stale connection to "+key.getHost());
+            invalidate(candidate);
+        }
+    }
+
+    /**
+     * Returns a connection to the pool so a later build can reuse it.
+     */
+    public synchronized void release(AdminClientConnection connection) {
+        if(connection == null) {
+            return;
+        }
+        connection.stopHeartbeat();
+        connection.closeNotifications();
+        connection.touch();
+        LinkedList<AdminClientConnection> connections = idle.get(connection.getKey());
+        if(connections == null) {
+            connections = new LinkedList<AdminClientConnection>();
+            idle.put(connection.getKey(), connections);
+        }
+        connections.addFirst(connection);
+        notifyAll();
+    }
+
+    /**
+     * Closes a connection that must not be reused, e.g. because it is broken.
+     */
+    public synchronized void invalidate(AdminClientConnection connection) {
+        if(connection == null) {
+            return;
+        }
+        connection.close();
+        decrementOpen(connection.getKey().getHost());
+        notifyAll();
+    }
+
+    /**
+     * Discards every connection that has been idle for longer than the
+     * configured idle timeout.
+     *
+     * @return the number of evicted connections
+     */
+    public synchronized int evictIdle() {
+        long oldest = System.currentTimeMillis() - idleTimeout;
+        int evicted = 0;
+        for(Iterator<LinkedList<AdminClientConnection>> lists = idle.values().iterator();lists.hasNext();) {
+            LinkedList<AdminClientConnection> connections = lists.next();
+            for(Iterator<AdminClientConnection> i = connections.iterator();i.hasNext();) {
+                AdminClientConnection connection = i.next();
+                if(connection.getLastUsed() < oldest) {
+                    i.remove();
+                    connection.close();
+                    decrementOpen(connection.getKey().getHost());
+                    evicted++;
+                }
+            }
+            if(connections.isEmpty()) {
+                lists.remove();
+            }
+        }
+        if(evicted > 0) {
+            evictions.addAndGet(evicted);
+            notifyAll();
+        }
+        return evicted;
+    }
+
+    /**
+     * Closes the idle connections whose SSL settings differ from the given ones,
+     * so that a connection with these settings can be created.
+     *
+     * @see SystemPropertiesGuard
+     */
+    public synchronized int evictOtherSslProfiles(Object profile) {
+        int evicted = 0;
+        for(Iterator<Map.Entry<Key,LinkedList<AdminClientConnection>>> i = idle.entrySet().iterator();i.hasNext();) {
+            Map.Entry<Key,LinkedList<AdminClientConnection>> entry = i.next();
+            Object other = entry.getKey().getSslProfile();
+            if(other == null || other.equals(profile)) {
+                continue;
+            }
+            for(AdminClientConnection connection:entry.getValue()) {
+                connection.close();
+                decrementOpen(connection.getKey().getHost());
+                evicted++;
+            }
+            i.remove();
+        }
+        if(evicted > 0) {
+            evictions.addAndGet(evicted);
+            notifyAll();
+        }
+        return evicted;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getFailedProbes() {
+        return failedProbes.get();
+    }
+
+    public synchronized String getStatistics() {
+        int idleCount = 0;
+        for(LinkedList<AdminClientConnection> connections:idle.values()) {
+            idleCount += connections.size();
+        }
+        int openCount = 0;
+        for(Integer count:open.values()) {
+            openCount += count;
+        }
+        return "hits="+hits.get()+", misses="+misses.get()+", evictions="+evictions.get()+
+                ", stale="+failedProbes.get()+", open="+openCount+", idle="+idleCount;
+    }
+
+    /*
+     * Either removes an idle connection for the key from the pool, or reserves
+     * a slot for a new one (returns null). Waits for a slot if the deployment
+     * manager is at its limit.
+     */
+    private synchronized AdminClientConnection reserve(Key key, long deadline) throws InterruptedException {
+        while(true) {
+            evictIdle();
+            LinkedList<AdminClientConnection> connections = idle.get(key);
+            if(connections != null && !connections.isEmpty()) {
+                AdminClientConnection connection = connections.removeFirst();
+                if(connections.isEmpty()) {
+                    idle.remove(key);
+                }
+                return connection;
+            }
+            Integer count = open.get(key.getHost());
+            if(count == null || count < maxConnectionsPerHost) {
+                open.put(key.getHost(), count == null ? 1 : count + 1);
+                return null;
+            }
+            if(evictOtherIdle(key)) {
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                throw new DeploymentServiceException("Timed out waiting for a free connection to "+key.getHost()+
+                        " ("+maxConnectionsPerHost+" connections already in use)");
+            }
+            wait(remaining);
+        }
+    }
+
+    /*
+     * Frees a slot on the same deployment manager that is held by an idle
+     * connection with different credentials or settings.
+     */
+    private boolean evictOtherIdle(Key key) {
+        for(Iterator<Map.Entry<Key,LinkedList<AdminClientConnection>>> i = idle.entrySet().iterator();i.hasNext();) {
+            Map.Entry<Key,LinkedList<AdminClientConnection>> entry = i.next();
+            if(entry.getKey().getHost().equals(key.getHost()) && !entry.getValue().isEmpty()) {
+                AdminClientConnection connection = entry.getValue().removeLast();
+                if(entry.getValue().isEmpty()) {
+                    i.remove();
+                }
+                connection.close();
+                decrementOpen(key.getHost());
+                evictions.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private AdminClientConnection create(Key key) throws Exception {
+        misses.incrementAndGet();
+        AdminClientConnection connection = null;
+        try {
+            connection = open(key);
+        } finally {
+            if(connection == null) {
+                synchronized(this) {
+                    decrementOpen(key.getHost());
+                    notifyAll();
+                }
+            }
+        }
+        return connection;
+    }
+
+    AdminClientConnection open(Key key) throws Exception {
+        return AdminClientConnection.open(key);
+    }
+
+    private void decrementOpen(String host) {
+        Integer count = open.get(host);
+        if(count == null || count <= 1) {
+            open.remove(host);
+        } else {
+            open.put(host, count - 1);
+        }
+    }
+
+    /**
+     * Identifies interchangeable connections: two keys are equal only if every
+     * connector property (including credentials) and the trust settings match.
+     */
+    public static final class Key {
+
+        private final Properties config;
+        private final boolean trustAll;
+        private final String host;
+
+        public Key(Properties config, boolean trustAll) {
+            this.config = new Properties();
+            this.config.putAll(config);
+            this.trustAll = trustAll;
+            this.host = config.get(AdminClient.CONNECTOR_HOST)+":"+config.get(AdminClient.CONNECTOR_PORT);
+        }
+
+        public Properties getConfig() {
+            Properties copy = new Properties();
+            copy.putAll(config);
+            return copy;
+        }
+
+        public boolean isTrustAll() {
+            return trustAll;
+        }
+
+        /**
+         * @return the SSL settings of this configuration, which the IBM client
+         *   applies to the whole JVM, or null if it has none
+         */
+        public Object getSslProfile() {
+            Map<Object,Object> profile = new HashMap<Object,Object>();
+            for(Map.Entry<Object,Object> property:config.entrySet()) {
+                String name = property.getKey().toString();
+                if(name.startsWith("com.ibm.ssl.") || name.startsWith("javax.net.ssl.")) {
+                    profile.put(name, property.getValue());
+                }
+            }
+            if(profile.isEmpty() && !trustAll) {
+                return null;
+            }
+            profile.put("trustAll", Boolean.valueOf(trustAll));
+            return profile;
+        }
+
+        /**
+         * @return the deployment manager this key connects to, as host:port
+         */
+        public String getHost() {
+            return host;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(other instanceof Key) {
+                Key otherKey = (Key)other;
+                return trustAll == otherKey.trustAll && config.equals(otherKey.config);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return config.hashCode() * 31 + (trustAll ? 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return host;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the deployment descriptors of an archive in a single pass.
+ * <p>
+ * The archive is opened once and each descriptor is looked up through the
+ * ZIP central directory and read with a streaming (StAX) parser, so no DOM is
+ * built and no other entry is touched. A descriptor that can't be parsed is
+ * skipped; callers then fall back to their defaults.
+ * <p>
+ * Only ibm-web-ext.xml (context root) and application.xml (modules) are parsed.
+ * The other descriptors, including the legacy XMI bindings and extensions, are
+ * only recorded as present.
+ */
+public class ArchiveInspector {
+
+    private static Logger log = Logger.getLogger(ArchiveInspector.class.getName());
+
+    public static final String WEB_EXT_XML = "WEB-INF/ibm-web-ext.xml";
+    public static final String WEB_EXT_XMI = "WEB-INF/ibm-web-ext.xmi";
+    public static final String WEB_XML = "WEB-INF/web.xml";
+    public static final String APPLICATION_XML = "META-INF/application.xml";
+    public static final String APPLICATION_BND_XML = "META-INF/ibm-application-bnd.xml";
+    public static final String APPLICATION_BND_XMI = "META-INF/ibm-application-bnd.xmi";
+
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static {
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+
+    public static ArchiveMetadata inspect(File archive) throws IOException {
+        ArchiveMetadata metadata = new ArchiveMetadata();
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            for(String path:new String[] {WEB_EXT_XMI, WEB_XML, APPLICATION_BND_XML, APPLICATION_BND_XMI}) {
+                if(zipFile.getEntry(path) != null) {
+                    metadata.addDescriptor(path);
+                }
+            }
+            XMLStreamReader reader = open(zipFile, WEB_EXT_XML, metadata);
+            if(reader != null) {
+                try {
+                    readWebExt(reader, metadata);
+                } catch(XMLStreamException e) {
+                    log.warning("Failed to parse "+WEB_EXT_XML+" in "+archive.getName()+": "+e.getMessage());
+                } finally {
+                    close(reader);
+                }
+            }
+            reader = open(zipFile, APPLICATION_XML, metadata);
+            if(reader != null) {
+                try {
+                    readApplicationXml(reader, metadata);
+                } catch(XMLStreamException e) {
+                    log.warning("Failed to parse "+APPLICATION_XML+" in "+archive.getName()+": "+e.getMessage());
+                } finally {
+                    close(reader);
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return metadata;
+    }
+
+    private static XMLStreamReader open(ZipFile zipFile, String path, ArchiveMetadata metadata) throws IOException {
+        ZipEntry entry = zipFile.getEntry(path);
+        if(entry == null) {
+            return null;
+        }
+        metadata.addDescriptor(path);
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            return factory.createXMLStreamReader(in);
+        } catch(XMLStreamException e) {
+            in.close();
+            log.warning("Failed to read "+path+" in "+zipFile.getName()+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        try {
+            reader.close();
+        } catch(XMLStreamException e) {
+            log.fine("Failed to close XML reader: "+e.getMessage());
+        }
+    }
+
+    /*
+     * <web-ext><context-root uri="..."/></web-ext>
+     */
+    private static void readWebExt(XMLStreamReader reader, ArchiveMetadata metadata) throws XMLStreamException {
+        while(reader.hasNext()) {
+            if(reader.next() == XMLStreamReader.START_ELEMENT && "context-root".equals(reader.getLocalName())) {
+                metadata.setContextRoot(reader.getAttributeValue(null, "uri"));
+                return;
+            }
+        }
+    }
+
+    /*
+     * <application>
+     *   <module><web><web-uri>...</web-uri><context-root>...</context-root></web></module>
+     *   <module><ejb>...</ejb></module>
+     * </application>
+     */
+    private static void readApplicationXml(XMLStreamReader reader, ArchiveMetadata metadata) throws XMLStreamException {
+        List<String> path = new ArrayList<String>();
+        String webUri = null;
+        String contextRoot = null;
+        while(reader.hasNext()) {
+            int event = reader.next();
+            if(event == XMLStreamReader.START_ELEMENT) {
+                String name = reader.getLocalName();
+                int depth = path.size();
+                if(depth == 2 && "module".equals(path.get(1)) && isPlainModule(name)) {
+                    metadata.addModule(new ArchiveMetadata.Module(reader.getElementText().trim(), name, null));
+                    continue;
+                }
+                if(depth == 3 && ArchiveMetadata.MODULE_WEB.equals(path.get(2))) {
+                    if("web-uri".equals(name)) {
+                        webUri = reader.getElementText().trim();
+                        continue;
+                    } else if("context-root".equals(name)) {
+                        contextRoot = reader.getElementText().trim();
+                        continue;
+                    }
+                }
+                path.add(name);
+            } else if(event == XMLStreamReader.END_ELEMENT) {
+                String name = path.remove(path.size() - 1);
+                if(path.size() == 2 && ArchiveMetadata.MODULE_WEB.equals(name)) {
+                    metadata.addModule(new ArchiveMetadata.Module(webUri, ArchiveMetadata.MODULE_WEB, contextRoot));
+                    webUri = null;
+                    contextRoot = null;
+                }
+            }
+        }
+    }
+
+    private static boolean isPlainModule(String name) {
+        return ArchiveMetadata.MODULE_EJB.equals(name) || ArchiveMetadata.MODULE_JAVA.equals(name) || ArchiveMetadata.MODULE_CONNECTOR.equals(name);
+    }
+}
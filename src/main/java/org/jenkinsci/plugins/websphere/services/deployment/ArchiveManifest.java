@@ -0,0 +1,220 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The CRC and size of every file of an EAR, as the server sees it once the EAR
+ * is expanded: entries of web modules are listed below the module
+ * (<code>shop.war/WEB-INF/classes/...</code>), everything else as it is.
+ * <p>
+ * Comparing the manifests of two versions yields the files a partial
+ * application update has to carry, and the modules that changed.
+ */
+public class ArchiveManifest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String,String> entries = new TreeMap<String,String>();
+    private final Set<String> webModules = new TreeSet<String>();
+    private final Set<String> otherModules = new TreeSet<String>();
+
+    /**
+     * @param metadata the inspected descriptors of the archive, which name its modules
+     */
+    public static ArchiveManifest read(File archive, ArchiveMetadata metadata) throws IOException {
+        ArchiveManifest manifest = new ArchiveManifest();
+        for(ArchiveMetadata.Module module:metadata.getModules()) {
+            if(ArchiveMetadata.MODULE_WEB.equals(module.getType())) {
+                manifest.webModules.add(module.getUri());
+            } else {
+                manifest.otherModules.add(module.getUri());
+            }
+        }
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while(zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if(entry.isDirectory()) {
+                    continue;
+                }
+                if(manifest.webModules.contains(entry.getName())) {
+                    manifest.readModule(entry.getName(), zipFile.getInputStream(entry));
+                } else {
+                    manifest.entries.put(entry.getName(), entry.getCrc()+":"+entry.getSize());
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return manifest;
+    }
+
+    /*
+     * Nested entries may not carry their CRC in the local header, so it is computed
+     */
+    private void readModule(String module, InputStream in) throws IOException {
+        ZipInputStream moduleIn = new ZipInputStream(in);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ZipEntry entry;
+            while((entry = moduleIn.getNextEntry()) != null) {
+                if(entry.isDirectory()) {
+                    continue;
+                }
+                CRC32 crc = new CRC32();
+                long size = 0;
+                int read;
+                while((read = moduleIn.read(buffer)) > 0) {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+                entries.put(module+"/"+entry.getName(), crc.getValue()+":"+size);
+            }
+        } finally {
+            moduleIn.close();
+        }
+    }
+
+    public Set<String> getWebModules() {
+        return Collections.unmodifiableSet(webModules);
+    }
+
+    /**
+     * @return the changes from the previous version of the archive to this one
+     */
+    public Changes compareTo(ArchiveManifest previous) {
+        Changes changes = new Changes();
+        if(!webModules.equals(previous.webModules) || !otherModules.equals(previous.otherModules)) {
+            changes.reason = "the modules of the application changed";
+            changes.moduleReason = changes.reason;
+        }
+        for(Map.Entry<String,String> entry:entries.entrySet()) {
+            if(!entry.getValue().equals(previous.entries.get(entry.getKey()))) {
+                changes.changed.add(entry.getKey());
+                changes.check(entry.getKey(), this);
+            }
+        }
+        for(String path:previous.entries.keySet()) {
+            if(!entries.containsKey(path)) {
+                changes.deleted.add(path);
+                changes.check(path, this);
+            }
+        }
+        return changes;
+    }
+
+    /*
+     * The module a path belongs to, or null for a file of the EAR itself
+     */
+    String getWebModule(String path) {
+        int separator = path.indexOf('/');
+        if(separator > 0 && webModules.contains(path.substring(0, separator))) {
+            return path.substring(0, separator);
+        }
+        return null;
+    }
+
+    /*
+     * Deployment descriptors and manifests are read by the server at install time
+     * only: META-INF of the EAR and of every web module, and the descriptors
+     * directly below WEB-INF.
+     */
+    boolean isDescriptor(String path) {
+        String module = getWebModule(path);
+        String relative = module != null ? path.substring(module.length() + 1) : path;
+        if(relative.startsWith("META-INF/")) {
+            return true;
+        }
+        if(module != null && relative.startsWith("WEB-INF/") && relative.indexOf('/', "WEB-INF/".length()) < 0) {
+            return relative.endsWith(".xml") || relative.endsWith(".xmi");
+        }
+        return false;
+    }
+
+    public static class Changes {
+
+        private final List<String> changed = new ArrayList<String>();
+        private final List<String> deleted = new ArrayList<String>();
+        private final Set<String> modules = new TreeSet<String>();
+        private String reason;
+        private String moduleReason;
+
+        private void check(String path, ArchiveManifest manifest) {
+            String module = manifest.getWebModule(path);
+            if(module == null && manifest.otherModules.contains(path)) {
+                module = path;
+            }
+            if(module != null) {
+                modules.add(module);
+            } else if(moduleReason == null) {
+                moduleReason = "file '"+path+"' of the application changed";
+            }
+            if(reason != null) {
+                return;
+            }
+            if(manifest.isDescriptor(path)) {
+                reason = "deployment descriptor '"+path+"' changed";
+            } else if(manifest.otherModules.contains(path)) {
+                reason = "module '"+path+"' changed";
+            }
+        }
+
+        /**
+         * @return the paths of added and modified files
+         */
+        public List<String> getChanged() {
+            return Collections.unmodifiableList(changed);
+        }
+
+        /**
+         * @return the paths of deleted files
+         */
+        public List<String> getDeleted() {
+            return Collections.unmodifiableList(deleted);
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && deleted.isEmpty();
+        }
+
+        /**
+         * @return why the changes can only be applied by a full update, or null if
+         *   a partial update can apply them
+         */
+        public String getFullUpdateReason() {
+            return reason;
+        }
+
+        /**
+         * @return the URIs of the modules with changed files
+         */
+        public Set<String> getChangedModules() {
+            return Collections.unmodifiableSet(modules);
+        }
+
+        /**
+         * @return why the changes can't be applied by replacing the changed modules, or
+         *   null if they can
+         */
+        public String getModuleUpdateReason() {
+            return moduleReason;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What {@link ArchiveInspector} found in the deployment descriptors of an
+ * archive. Kept on the {@link Artifact} so later steps don't open the archive again.
+ */
+public class ArchiveMetadata implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String MODULE_WEB = "web";
+    public static final String MODULE_EJB = "ejb";
+    public static final String MODULE_JAVA = "java";
+    public static final String MODULE_CONNECTOR = "connector";
+
+    private String contextRoot;
+    private final List<Module> modules = new ArrayList<Module>();
+    private final Set<String> descriptors = new TreeSet<String>();
+
+    /**
+     * @return the context root of a WAR as declared in ibm-web-ext, or null
+     */
+    public String getContextRoot() {
+        return contextRoot;
+    }
+
+    public void setContextRoot(String contextRoot) {
+        this.contextRoot = contextRoot;
+    }
+
+    /**
+     * @return the modules declared in application.xml, empty for a WAR
+     */
+    public List<Module> getModules() {
+        return Collections.unmodifiableList(modules);
+    }
+
+    public void addModule(Module module) {
+        modules.add(module);
+    }
+
+    /**
+     * @return the paths of all deployment descriptors present in the archive
+     */
+    public Set<String> getDescriptors() {
+        return Collections.unmodifiableSet(descriptors);
+    }
+
+    public void addDescriptor(String path) {
+        descriptors.add(path);
+    }
+
+    public boolean hasDescriptor(String path) {
+        return descriptors.contains(path);
+    }
+
+    public static class Module implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String uri;
+        private final String type;
+        private final String contextRoot;
+
+        public Module(String uri, String type, String contextRoot) {
+            this.uri = uri;
+            this.type = type;
+            this.contextRoot = contextRoot;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        /**
+         * @return one of {@link ArchiveMetadata#MODULE_WEB}, {@link ArchiveMetadata#MODULE_EJB},
+         *   {@link ArchiveMetadata#MODULE_JAVA} or {@link ArchiveMetadata#MODULE_CONNECTOR}
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the context root of a web module, null for other module types
+         */
+        public String getContextRoot() {
+            return contextRoot;
+        }
+    }
+}
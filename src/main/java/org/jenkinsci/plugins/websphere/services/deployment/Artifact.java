@@ -13,6 +13,7 @@ public class Artifact {
     private String appName;
     private String context;
     private String targets;
+    private String moduleTargets;
     private int type;
     private boolean distribute;
     private boolean precompile;
@@ -25,6 +26,11 @@ public class Artifact {
     private String sharedLibName;
     private String edition;
     private Hashtable<String,Object> preferences;
+    private ArchiveMetadata metadata;
+    private Hashtable<String,Object> archiveOptions;
+    private String digest;
+    private String serverPath;
+    private String contentDigest;
     
     public String getTypeName() {
     	switch(type) {
@@ -78,6 +84,18 @@ public class Artifact {
 		this.targets = targets;
 	}
 
+	/**
+	 * @return the targets of individual modules, one <code>module=target</code> per line;
+	 *   modules not listed are deployed to {@link #getTargets()}
+	 */
+	public String getModuleTargets() {
+		return moduleTargets;
+	}
+
+	public void setModuleTargets(String moduleTargets) {
+		this.moduleTargets = moduleTargets;
+	}
+
 	public boolean isJspReloading() {
 		return jspReloading;
 	}
@@ -116,6 +134,8 @@ public class Artifact {
 
     public void setSourcePath(File sourcePath) {
         this.sourcePath = sourcePath;
+        this.digest = null;
+        this.serverPath = null;
     }
 
 	public String getContext() {
@@ -176,4 +196,63 @@ public class Artifact {
 	public void setPreferences(Hashtable<String, Object> preferences) {
 		this.preferences = new Hashtable<String,Object>(preferences);
 	}
+
+	public ArchiveMetadata getMetadata() {
+		return metadata;
+	}
+
+	public void setMetadata(ArchiveMetadata metadata) {
+		this.metadata = metadata;
+	}
+
+	/**
+	 * @return a copy of the options the AppDeploymentController derived from the archive,
+	 *   or null if the archive has not been read yet
+	 */
+	public Hashtable<String, Object> getArchiveOptions() {
+		if(archiveOptions == null) {
+			return null;
+		}
+		return new Hashtable<String, Object>(archiveOptions);
+	}
+
+	public void setArchiveOptions(Hashtable<String, Object> archiveOptions) {
+		this.archiveOptions = new Hashtable<String,Object>(archiveOptions);
+	}
+
+	/**
+	 * @return the SHA-256 digest of the archive at the source path, or null if not computed yet
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
+
+	/**
+	 * @return the path of a copy of the archive as seen by the deployment manager, or null
+	 *   if the archive has to be uploaded
+	 */
+	public String getServerPath() {
+		return serverPath;
+	}
+
+	public void setServerPath(String serverPath) {
+		this.serverPath = serverPath;
+	}
+
+	/**
+	 * @return the digest of the WARs and the application.xml a generated EAR was built
+	 *   from, or null if the archive was not generated. Unlike {@link #getDigest()} it
+	 *   is kept when the source path changes, since it identifies the content.
+	 */
+	public String getContentDigest() {
+		return contentDigest;
+	}
+
+	public void setContentDigest(String contentDigest) {
+		this.contentDigest = contentDigest;
+	}
 }
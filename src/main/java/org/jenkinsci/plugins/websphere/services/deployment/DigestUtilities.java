@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 helpers used to identify archives and generated content by what
+ * they contain rather than by name or timestamp.
+ */
+public final class DigestUtilities {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private DigestUtilities() {
+    }
+
+    public static String digest(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return digest(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static String digest(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while((read = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digests several strings as one value. Each part is length-prefixed so that
+     * e.g. ("ab","c") and ("a","bc") don't collide.
+     */
+    public static String digest(String... parts) {
+        MessageDigest digest = newDigest();
+        for(String part:parts) {
+            byte[] bytes = String.valueOf(part).getBytes(Charset.forName("UTF-8"));
+            digest.update(String.valueOf(bytes.length).getBytes(Charset.forName("UTF-8")));
+            digest.update((byte)':');
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for(int i=0;i<bytes.length;i++) {
+            chars[i*2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i*2+1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
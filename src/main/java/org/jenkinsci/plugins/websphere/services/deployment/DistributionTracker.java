@@ -0,0 +1,189 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import hudson.model.BuildListener;
+
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import com.ibm.websphere.management.application.AppConstants;
+import com.ibm.websphere.management.application.AppManagement;
+import com.ibm.websphere.management.application.AppNotification;
+
+/**
+ * Follows the distribution of an application to its nodes through the
+ * connection's shared {@link NotificationDispatcher}.
+ * <p>
+ * Every distribution status answer is logged per node as it arrives, and the
+ * wait ends as soon as the last node reports that it is done. While nodes are
+ * reporting, the status is asked for again at a short fixed interval; when the
+ * server stays silent the interval doubles up to a maximum.
+ * <p>
+ * Asking is needed because the deployment manager publishes the distribution
+ * status only in answer to {@link AppManagement#getDistributionStatus}; there is
+ * no notification when a node finishes on its own. Any status notification that
+ * arrives, asked for or not, ends the current wait at once, so the interval only
+ * bounds how stale the status can get. The 250 ms start keeps the wait after the
+ * last node finished short, and the 8 s cap keeps a slow synchronization from
+ * loading the deployment manager with requests.
+ */
+public class DistributionTracker implements NotificationListener {
+
+    private static final long INITIAL_BACKOFF = 250;
+    private static final long MAX_BACKOFF = 8000;
+
+    private final NotificationDispatcher dispatcher;
+    private final AppManagement appManagement;
+    private final String appName;
+    private final Hashtable<String,Object> preferences;
+    private final BuildListener listener;
+    private final boolean verbose;
+    private final Map<String,String> nodeStatus = new TreeMap<String,String>();
+    private String distributionState = AppNotification.DISTRIBUTION_UNKNOWN;
+    private boolean updated;
+
+    public DistributionTracker(NotificationDispatcher dispatcher, AppManagement appManagement, String appName, Hashtable<String,Object> preferences, BuildListener listener, boolean verbose) {
+        this.dispatcher = dispatcher;
+        this.appManagement = appManagement;
+        this.appName = appName;
+        this.preferences = preferences;
+        this.listener = listener;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Waits until the application is distributed to all nodes.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if distribution finished on all nodes in time
+     */
+    public boolean await(long timeout) throws Exception {
+        dispatcher.addListener(this);
+        try {
+            long deadline = System.currentTimeMillis() + timeout;
+            long backoff = INITIAL_BACKOFF;
+            while(true) {
+                appManagement.getDistributionStatus(appName, preferences, null);
+                boolean answered = waitForUpdate(Math.min(deadline, System.currentTimeMillis() + backoff));
+                if(isDone()) {
+                    return true;
+                }
+                if(answered) {
+                    backoff = INITIAL_BACKOFF;
+                    waitForUpdate(Math.min(deadline, System.currentTimeMillis() + INITIAL_BACKOFF)); //pace the next status request
+                } else {
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+                }
+                if(System.currentTimeMillis() >= deadline) {
+                    return isDone();
+                }
+            }
+        } finally {
+            dispatcher.removeListener(this);
+        }
+    }
+
+    /*
+     * Waits until a status notification arrives or the given time is reached.
+     * Returns true if a notification arrived.
+     */
+    private synchronized boolean waitForUpdate(long until) throws InterruptedException {
+        long remaining = until - System.currentTimeMillis();
+        while(!updated && remaining > 0) {
+            wait(remaining);
+            remaining = until - System.currentTimeMillis();
+        }
+        boolean result = updated;
+        updated = false;
+        return result;
+    }
+
+    public synchronized boolean isDone() {
+        return AppNotification.DISTRIBUTION_DONE.equals(distributionState);
+    }
+
+    public synchronized Map<String,String> getNodeStatus() {
+        return new TreeMap<String,String>(nodeStatus);
+    }
+
+    public void handleNotification(Notification notification, Object handback) {
+        if(!(notification.getUserData() instanceof AppNotification)) {
+            return;
+        }
+        AppNotification appNotification = (AppNotification) notification.getUserData();
+        if(!AppNotification.DISTRIBUTION_STATUS_NODE.equals(appNotification.taskName) || appNotification.props == null) {
+            return;
+        }
+        String notifiedApp = appNotification.props.getProperty(AppConstants.APPDEPL_APPNAME);
+        if(notifiedApp != null && !notifiedApp.equals(appName)) {
+            return;
+        }
+        String compositeServers = appNotification.props.getProperty(AppNotification.DISTRIBUTION_STATUS_COMPOSITE);
+        if(compositeServers == null) {
+            return;
+        }
+        try {
+            update(compositeServers);
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /*
+     * Records the per-node state and figures out the aggregate distribution status of all nodes
+     */
+    private synchronized void update(String compositeServers) throws MalformedObjectNameException {
+        if(verbose) {
+            listener.getLogger().println("Server Composite: "+ compositeServers);
+        }
+        int countTrue = 0, countFalse = 0, countUnknown = 0;
+        for (String server : compositeServers.split("\\+")) {
+            ObjectName serverObject = new ObjectName(server);
+            String state = serverObject.getKeyProperty("distribution");
+            String node = getNodeName(serverObject);
+            if(!state.equals(nodeStatus.put(node, state))) {
+                listener.getLogger().println("Distribution of '"+appName+"' to "+node+": "+describe(state));
+            }
+            if (state.equals("true"))
+                countTrue++;
+            if (state.equals("false"))
+                countFalse++;
+            if (state.equals("unknown"))
+                countUnknown++;
+        }
+        if (countUnknown > 0) {
+            distributionState = AppNotification.DISTRIBUTION_UNKNOWN;
+        } else if (countFalse > 0) {
+            distributionState = AppNotification.DISTRIBUTION_NOT_DONE;
+        } else if (countTrue > 0) {
+            distributionState = AppNotification.DISTRIBUTION_DONE;
+        } else {
+            throw new DeploymentServiceException("Reported distribution status is invalid.");
+        }
+        updated = true;
+        notifyAll();
+    }
+
+    private String getNodeName(ObjectName serverObject) {
+        String node = serverObject.getKeyProperty("node");
+        String server = serverObject.getKeyProperty("server");
+        if(node == null) {
+            return serverObject.getCanonicalName();
+        }
+        return server != null ? node+"/"+server : node;
+    }
+
+    private String describe(String state) {
+        if(state.equals("true")) {
+            return "done";
+        } else if(state.equals("false")) {
+            return "in progress";
+        }
+        return state;
+    }
+}
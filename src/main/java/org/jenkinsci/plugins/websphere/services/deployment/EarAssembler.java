@@ -0,0 +1,21 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the EAR that wraps a set of web modules. The service's default
+ * assembler builds it in place with {@link EarBuilder}; a caller may build it
+ * elsewhere instead, e.g. on the machine that holds the modules, as long as
+ * the result ends up in the destination file.
+ */
+public interface EarAssembler {
+
+    /**
+     * @param applicationXml the content of META-INF/application.xml
+     * @param modules the web modules, each placed in the root of the EAR under its file name
+     * @param destination the file the EAR must be written to
+     */
+    void assemble(String applicationXml, List<Artifact> modules, File destination) throws IOException;
+}
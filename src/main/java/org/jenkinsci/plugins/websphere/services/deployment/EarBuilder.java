@@ -0,0 +1,102 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Wraps web modules into an EAR without recompressing them.
+ * <p>
+ * A WAR is already compressed, so deflating it again costs a lot of CPU for
+ * next to no gain. Each module is stored as a STORED entry instead: its CRC is
+ * computed up front (required for STORED entries) and its bytes are then
+ * copied as they are. The saving is the deflater; the module is still read
+ * twice and copied through a buffer, since a {@link ZipOutputStream} offers no
+ * zero-copy path.
+ */
+public class EarBuilder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<File> modules = new ArrayList<File>();
+    private final String applicationXml;
+
+    /**
+     * @param applicationXml the content of META-INF/application.xml
+     */
+    public EarBuilder(String applicationXml) {
+        this.applicationXml = applicationXml;
+    }
+
+    /**
+     * Adds a module, which is placed in the root of the EAR under its file name.
+     */
+    public EarBuilder addModule(File module) {
+        modules.add(module);
+        return this;
+    }
+
+    public void build(File destination) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE));
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for(File module:modules) {
+                writeStored(out, module, buffer);
+            }
+            ZipEntry metaInf = new ZipEntry("META-INF/");
+            metaInf.setMethod(ZipEntry.STORED);
+            metaInf.setSize(0);
+            metaInf.setCrc(0);
+            out.putNextEntry(metaInf);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("META-INF/application.xml"));
+            out.write(applicationXml.getBytes(Charset.forName("UTF-8")));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeStored(ZipOutputStream out, File module, byte[] buffer) throws IOException {
+        ZipEntry entry = new ZipEntry(module.getName());
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(module.length());
+        entry.setCompressedSize(module.length());
+        entry.setCrc(crc(module, buffer));
+        entry.setTime(module.lastModified());
+        out.putNextEntry(entry);
+        InputStream in = new FileInputStream(module);
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        out.closeEntry();
+    }
+
+    private long crc(File module, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(module);
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,207 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A content-addressed file cache on disk, bounded in size.
+ * <p>
+ * Entries are stored under their key (typically a digest of everything that
+ * determines their content), so an entry never needs to be invalidated: a
+ * different input simply produces a different key. When the cache grows beyond
+ * its size limit, the least recently used entries are deleted.
+ */
+public class FileCache {
+
+    private static Logger log = Logger.getLogger(FileCache.class.getName());
+    private static final Map<File,FileCache> caches = new HashMap<File,FileCache>();
+
+    private final File directory;
+    private final String suffix;
+    private final long maxBytes;
+
+    private FileCache(File directory, String suffix, long maxBytes) {
+        this.directory = directory;
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cache stored in the given directory. All callers using the same
+     * directory share one instance.
+     *
+     * @param suffix file name extension of the entries
+     * @param maxBytes size limit of the cache
+     */
+    public static synchronized FileCache forDirectory(File directory, String suffix, long maxBytes) {
+        FileCache cache = caches.get(directory);
+        if(cache == null) {
+            cache = new FileCache(directory, suffix, maxBytes);
+            caches.put(directory, cache);
+        }
+        return cache;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the entry for the key and marks it as recently used, or null if
+     * there is no such entry.
+     */
+    public File get(String key) {
+        File entry = getEntryFile(key);
+        if(!entry.isFile()) {
+            return null;
+        }
+        if(!entry.setLastModified(System.currentTimeMillis())) {
+            log.fine("Failed to update access time of "+entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Copies the entry for the key to the destination.
+     *
+     * @return false if there is no such entry
+     */
+    public boolean copyTo(String key, File destination) throws IOException {
+        File entry = get(key);
+        if(entry == null) {
+            return false;
+        }
+        try {
+            copy(entry, destination);
+            return true;
+        } catch(IOException e) {
+            if(!entry.exists()) { //evicted concurrently
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stores a copy of the source file under the key, then evicts least recently
+     * used entries if the cache is over its size limit.
+     */
+    public File put(String key, File source) throws IOException {
+        File temp = createTempFile(key);
+        try {
+            copy(source, temp);
+            return commit(key, temp);
+        } finally {
+            deleteTempFile(temp);
+        }
+    }
+
+    /**
+     * Stores the content under the key, then evicts least recently used entries
+     * if the cache is over its size limit.
+     */
+    public File put(String key, byte[] content) throws IOException {
+        File temp = createTempFile(key);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            return commit(key, temp);
+        } finally {
+            deleteTempFile(temp);
+        }
+    }
+
+    private File createTempFile(String key) throws IOException {
+        directory.mkdirs();
+        if(!directory.isDirectory()) {
+            throw new IOException("Failed to create cache directory "+directory.getAbsolutePath());
+        }
+        return File.createTempFile(key, ".tmp", directory);
+    }
+
+    private File commit(String key, File temp) throws IOException {
+        File entry = getEntryFile(key);
+        if(!temp.renameTo(entry) && !entry.isFile()) {
+            throw new IOException("Failed to store cache entry "+entry.getAbsolutePath());
+        }
+        evict();
+        return entry;
+    }
+
+    private void deleteTempFile(File temp) {
+        if(temp.exists() && !temp.delete()) {
+            log.fine("Failed to delete "+temp);
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits its size limit.
+     */
+    public synchronized void evict() {
+        File[] entries = directory.listFiles();
+        if(entries == null) {
+            return;
+        }
+        long total = 0;
+        for(File entry:entries) {
+            total += entry.length();
+        }
+        if(total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for(File entry:entries) {
+            if(total <= maxBytes) {
+                break;
+            }
+            if(!entry.getName().endsWith(suffix)) {
+                continue;
+            }
+            long length = entry.length();
+            if(entry.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(directory, key + suffix);
+    }
+
+    private static void copy(File source, File destination) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                FileChannel input = in.getChannel();
+                FileChannel output = out.getChannel();
+                long size = input.size();
+                long position = 0;
+                while(position < size) {
+                    position += input.transferTo(position, size - position, output);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package org.jenkinsci.plugins.websphere.services.deployment;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.security.KeyStore;
 import java.util.HashMap;
 
 import javax.management.JMX;
@@ -9,6 +12,9 @@ import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
 
 import com.ibm.websphere.application.ApplicationMBean;
 import com.ibm.websphere.filetransfer.FileTransferMBean;
@@ -18,6 +24,8 @@ import com.ibm.websphere.filetransfer.FileTransferMBean;
  */
 public class LibertyDeploymentService extends AbstractDeploymentService {
 
+    private static final String CUSTOM_SSLSOCKETFACTORY = "com.ibm.ws.jmx.connector.client.CUSTOM_SSLSOCKETFACTORY";
+
     private JMXConnector connector;
     private MBeanServerConnection client;
 
@@ -93,12 +101,10 @@ public class LibertyDeploymentService extends AbstractDeploymentService {
             //Liberty jars won't be found unless the following happens
             Thread.currentThread().setContextClassLoader(loader);
         }
-        System.setProperty("javax.net.ssl.trustStore",getTrustStoreLocation().getAbsolutePath());
-        System.setProperty("javax.net.ssl.trustStorePassword",getTrustStorePassword());
-
         HashMap<String, Object> environment = new HashMap<String, Object>();
         environment.put("jmx.remote.protocol.provider.pkgs", "com.ibm.ws.jmx.connector.client");
         environment.put("com.ibm.ws.jmx.connector.client.disableURLHostnameVerification",true);
+        environment.put(CUSTOM_SSLSOCKETFACTORY, createSocketFactory());
         environment.put(JMXConnector.CREDENTIALS, new String[] { getUsername(), getPassword() });
 
         JMXServiceURL url = new JMXServiceURL("service:jmx:rest://"+getHost()+":"+getPort()+"/IBMJMXConnectorREST");
@@ -110,6 +116,27 @@ public class LibertyDeploymentService extends AbstractDeploymentService {
         }
     }
 
+    /*
+     * Builds an SSL socket factory from the configured truststore for this
+     * connection only, instead of overriding javax.net.ssl.trustStore for the whole JVM.
+     */
+    private SSLSocketFactory createSocketFactory() throws Exception {
+        File location = getTrustStoreLocation();
+        String password = getTrustStorePassword();
+        KeyStore trustStore = KeyStore.getInstance(location.getName().toLowerCase().endsWith(".p12") ? "PKCS12" : KeyStore.getDefaultType());
+        FileInputStream in = new FileInputStream(location);
+        try {
+            trustStore.load(in, password != null ? password.toCharArray() : null);
+        } finally {
+            in.close();
+        }
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(trustStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagerFactory.getTrustManagers(), null);
+        return context.getSocketFactory();
+    }
+
     public void disconnect() {
         if(connector != null) {
             try {
@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import hudson.model.BuildListener;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.ibm.websphere.management.AdminClient;
+import com.ibm.websphere.management.application.AppConstants;
+import com.ibm.websphere.management.application.AppNotification;
+
+/**
+ * Holds a single AppManagement notification subscription per {@link AdminClient}
+ * and routes the incoming events to whoever is interested in them:
+ * <ul>
+ *   <li>pending operations ({@link #expect}), matched by task name and application name</li>
+ *   <li>listeners that want to see every event ({@link #addListener}), e.g. {@link DistributionTracker}</li>
+ * </ul>
+ * The subscription is made lazily on first use and removed by {@link #close()}.
+ */
+public class NotificationDispatcher implements NotificationListener {
+
+    private static Logger log = Logger.getLogger(NotificationDispatcher.class.getName());
+    private static final int RECENT_NOTIFICATIONS = 20;
+
+    private final AdminClient client;
+    private final List<OperationFuture> pending = new LinkedList<OperationFuture>();
+    private final List<NotificationListener> listeners = new CopyOnWriteArrayList<NotificationListener>();
+    private final LinkedList<String> recent = new LinkedList<String>();
+    private ObjectName appManagement;
+
+    public NotificationDispatcher(AdminClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Registers interest in the outcome of an operation. Must be called
+     * <em>before</em> the operation is started so no notification is missed.
+     *
+     * @param taskName the {@link AppNotification} task that reports the outcome, e.g. {@link AppNotification#INSTALL}
+     * @param appName the application the operation works on
+     */
+    public OperationFuture expect(String taskName, String appName, BuildListener listener, boolean verbose) throws Exception {
+        subscribe();
+        final OperationFuture operation = new OperationFuture(taskName, appName, listener, verbose);
+        synchronized(this) {
+            pending.add(operation);
+        }
+        operation.addListener(new Runnable() {
+            public void run() {
+                remove(operation);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return operation;
+    }
+
+    public void addListener(NotificationListener listener) throws Exception {
+        subscribe();
+        listeners.add(listener);
+    }
+
+    public void removeListener(NotificationListener listener) {
+        listeners.remove(listener);
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the last notifications received on this subscription, oldest first
+     */
+    public synchronized List<String> getRecentNotifications() {
+        return new ArrayList<String>(recent);
+    }
+
+    private synchronized void record(AppNotification appNotification) {
+        recent.addLast(new SimpleDateFormat("HH:mm:ss.SSS").format(new Date())+" "+appNotification.taskName+"] "+appNotification.message+"["+appNotification.taskStatus+"]");
+        if(recent.size() > RECENT_NOTIFICATIONS) {
+            recent.removeFirst();
+        }
+    }
+
+    public void handleNotification(Notification notification, Object handback) {
+        for(NotificationListener listener:listeners) {
+            try {
+                listener.handleNotification(notification, handback);
+            } catch(Exception e) {
+                e.printStackTrace();
+            }
+        }
+        if(!(notification.getUserData() instanceof AppNotification)) {
+            return;
+        }
+        AppNotification appNotification = (AppNotification) notification.getUserData();
+        record(appNotification);
+        OperationFuture operation = route(appNotification);
+        if(operation != null) {
+            operation.handle(appNotification);
+        }
+    }
+
+    /*
+     * Finds the oldest pending operation of the notification's task. If the
+     * notification names its application, only an operation on that application matches.
+     */
+    private synchronized OperationFuture route(AppNotification appNotification) {
+        String appName = appNotification.props != null ? appNotification.props.getProperty(AppConstants.APPDEPL_APPNAME) : null;
+        for(OperationFuture operation:pending) {
+            if(operation.getTaskName().equals(appNotification.taskName) && (appName == null || appName.equals(operation.getAppName()))) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void remove(OperationFuture operation) {
+        pending.remove(operation);
+    }
+
+    private synchronized void subscribe() throws Exception {
+        if(appManagement == null) {
+            ObjectName name = (ObjectName) client.queryNames(new ObjectName("WebSphere:type=AppManagement,*"), null).iterator().next();
+            NotificationFilterSupport filterSupport = new NotificationFilterSupport();
+            filterSupport.enableType(AppConstants.NotificationType);
+            client.addNotificationListener(name, this, filterSupport, null);
+            appManagement = name;
+        }
+    }
+
+    /**
+     * Removes the subscription and cancels all operations still pending.
+     */
+    public void close() {
+        List<OperationFuture> cancelled;
+        synchronized(this) {
+            cancelled = new LinkedList<OperationFuture>(pending);
+            pending.clear();
+            listeners.clear();
+            if(appManagement != null) {
+                try {
+                    client.removeNotificationListener(appManagement, this);
+                } catch(Exception e) {
+                    log.fine("Failed to remove notification listener: "+e.getMessage());
+                }
+                appManagement = null;
+            }
+        }
+        for(OperationFuture operation:cancelled) {
+            operation.cancel(false);
+        }
+    }
+}
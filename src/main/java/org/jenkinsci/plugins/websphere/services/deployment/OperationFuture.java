@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import hudson.model.BuildListener;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.ibm.websphere.management.application.AppNotification;
+
+/**
+ * The pending result of an asynchronous AppManagement operation (install,
+ * update, uninstall). Completes with the final notification of the operation's
+ * task once it reports completed or failed.
+ * <p>
+ * Being a {@link com.google.common.util.concurrent.ListenableFuture}, waits of
+ * several concurrent operations can be combined with
+ * {@link com.google.common.util.concurrent.Futures#allAsList}.
+ */
+public class OperationFuture extends AbstractFuture<AppNotification> {
+
+    private final String taskName;
+    private final String appName;
+    private final BuildListener listener;
+    private final boolean verbose;
+    private final StringBuffer message = new StringBuffer();
+    private volatile boolean successful = true;
+
+    OperationFuture(String taskName, String appName, BuildListener listener, boolean verbose) {
+        this.taskName = taskName;
+        this.appName = appName;
+        this.listener = listener;
+        this.verbose = verbose;
+    }
+
+    /*
+     * Called by the dispatcher for every notification routed to this operation.
+     * Returns true if the notification completed the operation.
+     */
+    boolean handle(AppNotification appNotification) {
+        if(verbose && listener != null) {
+            listener.getLogger().println(appNotification.taskName+"] "+appNotification.message+"["+appNotification.taskStatus+"]");
+        }
+        message.append("\n").append(appNotification.message);
+        if(AppNotification.STATUS_COMPLETED.equals(appNotification.taskStatus) || AppNotification.STATUS_FAILED.equals(appNotification.taskStatus)) {
+            successful = !AppNotification.STATUS_FAILED.equals(appNotification.taskStatus);
+            return set(appNotification);
+        }
+        return false;
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public String getMessage() {
+        return message.toString();
+    }
+}
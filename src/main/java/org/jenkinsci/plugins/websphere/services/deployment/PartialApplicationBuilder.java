@@ -0,0 +1,124 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the content of a partial application update: the added and modified
+ * files of an EAR at their expanded paths, plus an
+ * <code>META-INF/ibm-partialapp-delete.props</code> per module (and one for the
+ * EAR itself) listing the files to delete.
+ */
+public class PartialApplicationBuilder {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String DELETE_PROPS = "META-INF/ibm-partialapp-delete.props";
+
+    private final File archive;
+    private final ArchiveManifest manifest;
+    private final ArchiveManifest.Changes changes;
+
+    /**
+     * @param archive the new version of the EAR
+     * @param manifest the manifest of the new version
+     * @param changes the changes from the deployed version to the new one
+     */
+    public PartialApplicationBuilder(File archive, ArchiveManifest manifest, ArchiveManifest.Changes changes) {
+        this.archive = archive;
+        this.manifest = manifest;
+        this.changes = changes;
+    }
+
+    public void build(File destination) throws IOException {
+        Set<String> changed = new HashSet<String>(changes.getChanged());
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destination), BUFFER_SIZE));
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while(entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if(manifest.getWebModules().contains(entry.getName())) {
+                    copyModule(entry.getName(), zipFile.getInputStream(entry), changed, out, buffer);
+                } else if(changed.contains(entry.getName())) {
+                    InputStream in = zipFile.getInputStream(entry);
+                    try {
+                        copy(entry.getName(), in, out, buffer);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            for(Map.Entry<String,List<String>> deletion:getDeletions().entrySet()) {
+                String prefix = deletion.getKey().length() > 0 ? deletion.getKey()+"/" : "";
+                StringBuilder props = new StringBuilder();
+                for(String path:deletion.getValue()) {
+                    props.append(path).append('\n');
+                }
+                out.putNextEntry(new ZipEntry(prefix + DELETE_PROPS));
+                out.write(props.toString().getBytes(Charset.forName("UTF-8")));
+                out.closeEntry();
+            }
+        } finally {
+            zipFile.close();
+            out.close();
+        }
+    }
+
+    private void copyModule(String module, InputStream in, Set<String> changed, ZipOutputStream out, byte[] buffer) throws IOException {
+        ZipInputStream moduleIn = new ZipInputStream(in);
+        try {
+            ZipEntry entry;
+            while((entry = moduleIn.getNextEntry()) != null) {
+                String path = module+"/"+entry.getName();
+                if(!entry.isDirectory() && changed.contains(path)) {
+                    copy(path, moduleIn, out, buffer);
+                }
+            }
+        } finally {
+            moduleIn.close();
+        }
+    }
+
+    private void copy(String path, InputStream in, ZipOutputStream out, byte[] buffer) throws IOException {
+        out.putNextEntry(new ZipEntry(path));
+        int read;
+        while((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        out.closeEntry();
+    }
+
+    /*
+     * Deleted paths relative to the module they belong to, "" being the EAR itself
+     */
+    private Map<String,List<String>> getDeletions() {
+        Map<String,List<String>> deletions = new TreeMap<String,List<String>>();
+        for(String path:changes.getDeleted()) {
+            String module = manifest.getWebModule(path);
+            String key = module != null ? module : "";
+            List<String> paths = deletions.get(key);
+            if(paths == null) {
+                paths = new ArrayList<String>();
+                deletions.put(key, paths);
+            }
+            paths.add(module != null ? path.substring(module.length() + 1) : path);
+        }
+        return deletions;
+    }
+}
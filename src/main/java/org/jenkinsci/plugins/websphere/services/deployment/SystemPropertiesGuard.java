@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Puts back the JVM system properties once nothing depends on them anymore,
+ * and keeps connections with different SSL settings from overlapping.
+ * <p>
+ * The IBM admin client sets SSL and ORB system properties while it is created
+ * and reads some of them only later, on its first SOAP or RMI call. There is no
+ * way to keep it from doing so, so two open connections with different trust or
+ * key stores would read each other's settings. Holders therefore name the SSL
+ * profile they depend on: a holder with a different profile waits until every
+ * holder of the current one has released the guard. Holders without a profile
+ * (no SSL settings) never wait. The properties as they were before the first
+ * holder are restored when the last one releases the guard.
+ */
+final class SystemPropertiesGuard {
+
+    private final Properties properties;
+    private Map<Object,Object> stored;
+    private int holders;
+    private Object profile;
+    private int profileHolders;
+
+    SystemPropertiesGuard(Properties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Stores the current properties if this is the first holder. Waits while
+     * holders of another SSL profile exist.
+     *
+     * @param profile the SSL settings the holder depends on, or null if none
+     * @param timeout in milliseconds
+     * @return false, without holding the guard, if holders of another profile
+     *   remained for the whole timeout
+     */
+    synchronized boolean acquire(Object profile, long timeout) throws InterruptedException {
+        if(profile != null) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while(profileHolders > 0 && !profile.equals(this.profile)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            this.profile = profile;
+            profileHolders++;
+        }
+        if(holders == 0) {
+            stored = new HashMap<Object,Object>(properties);
+        }
+        holders++;
+        return true;
+    }
+
+    /**
+     * Restores the stored properties if this is the last holder.
+     *
+     * @param profile the profile passed to {@link #acquire}
+     */
+    synchronized void release(Object profile) {
+        if(holders == 0) {
+            return;
+        }
+        if(profile != null && profileHolders > 0) {
+            profileHolders--;
+            if(profileHolders == 0) {
+                this.profile = null;
+            }
+        }
+        holders--;
+        if(holders == 0) {
+            restore(stored);
+            stored = null;
+        }
+        notifyAll();
+    }
+
+    synchronized int getHolders() {
+        return holders;
+    }
+
+    /**
+     * @return true if a holder of the given profile would have to wait
+     */
+    synchronized boolean isBlocked(Object profile) {
+        return profile != null && profileHolders > 0 && !profile.equals(this.profile);
+    }
+
+    private void restore(Map<Object,Object> stored) {
+        for(Object name:new HashMap<Object,Object>(properties).keySet()) {
+            if(!stored.containsKey(name)) {
+                properties.remove(name);
+            }
+        }
+        for(Map.Entry<Object,Object> property:stored.entrySet()) {
+            if(!property.getValue().equals(properties.get(property.getKey()))) {
+                properties.put(property.getKey(), property.getValue());
+            }
+        }
+    }
+}
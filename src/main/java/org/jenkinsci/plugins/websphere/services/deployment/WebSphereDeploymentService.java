@@ -2,49 +2,61 @@ package org.jenkinsci.plugins.websphere.services.deployment;
 
 import hudson.model.BuildListener;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.CodeSource;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import javax.enterprise.deploy.spi.Target;
-import javax.management.MalformedObjectNameException;
-import javax.management.NotificationFilterSupport;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.ObjectName;
 import javax.net.ssl.SSLSocketFactory;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 import com.ibm.websphere.management.AdminClient;
-import com.ibm.websphere.management.AdminClientFactory;
+import com.ibm.websphere.management.Session;
 import com.ibm.websphere.management.application.AppConstants;
 import com.ibm.websphere.management.application.AppManagement;
-import com.ibm.websphere.management.application.AppManagementProxy;
 import com.ibm.websphere.management.application.AppNotification;
 import com.ibm.websphere.management.application.client.AppDeploymentController;
 import com.ibm.websphere.management.application.client.AppDeploymentTask;
+import com.ibm.websphere.management.configservice.ConfigService;
+import com.ibm.websphere.management.configservice.ConfigServiceHelper;
+import com.ibm.websphere.management.configservice.ConfigServiceProxy;
 import com.ibm.websphere.management.exception.AdminException;
 import com.ibm.websphere.management.exception.ConnectorException;
+import com.ibm.websphere.management.filetransfer.client.FileTransferClient;
+import com.ibm.websphere.management.filetransfer.client.FileTransferFactory;
 import com.ibm.ws.management.application.AppUtils;
 import com.ibm.ws.management.application.task.ConfigRepoHelper;
 import com.ibm.ws.sm.workspace.RepositoryContext;
@@ -55,25 +67,42 @@ import com.ibm.ws.sm.workspace.RepositoryContext;
 public class WebSphereDeploymentService extends AbstractDeploymentService {
 
     public static final String CONNECTOR_TYPE_SOAP = "SOAP";
+    public static final String FINGERPRINT_PROPERTY = "jenkins.deployment.fingerprint";
+    public static final String SETTING_CLASSLOADER_ORDER = "class loader order";
+    public static final String SETTING_CLASSLOADER_POLICY = "class loader policy";
+    public static final String SETTING_SHARED_LIBRARY = "shared library";
+    public static final String SETTING_RELOADING = "reloading";
+    public static final String SETTING_JSP_RELOADING = "JSP reloading";
+    public static final String SETTING_VIRTUAL_HOST = "virtual host";
     private static final String className = WebSphereDeploymentService.class.getName();
     private static Logger log = Logger.getLogger(className);
 
     private AdminClient client;
+    private AdminClientConnection connection;
     private String connectorType;
     private boolean verbose;
     private boolean trustAll;
+    private boolean connectionPooling;
+    private Set<String> installedApplications;
+    private int deploymentTimeout = 5;
+    private FileCache earCache;
+    private final AtomicInteger earCacheHits = new AtomicInteger();
+    private final AtomicInteger earCacheMisses = new AtomicInteger();
+    private FileCache optionsCache;
+    private String pluginVersion;
+    private final AtomicInteger optionsCacheHits = new AtomicInteger();
+    private final AtomicInteger optionsCacheMisses = new AtomicInteger();
+    private static String clientVersion;
+    private final AtomicInteger appManagementResolutions = new AtomicInteger();
+    private final AtomicInteger appManagementReuses = new AtomicInteger();
+    private long livenessWindow = TimeUnit.SECONDS.toMillis(Long.getLong(className+".livenessWindowSeconds", 30));
     private BuildListener buildListener;
-    /**
-     * This is used to prevent weird behaviors caused by IBM wsadmin that overrides
-     * system properties.
-     *
-     * @see <a href="https://github.com/jenkinsci/websphere-deployer-plugin/pull/11">
-     *   GitHub discussion</a> for a reference.
-     */
-    private Properties storedProperties;
-    
-    public WebSphereDeploymentService() {
-    	System.setProperty("com.ibm.websphere.thinclient", "true");
+
+    static {
+    	// required by the IBM thin client; set once for the JVM instead of by every instance
+    	if(System.getProperty("com.ibm.websphere.thinclient") == null) {
+    		System.setProperty("com.ibm.websphere.thinclient", "true");
+    	}
     }
 
     public List<Server> listServers() {
@@ -114,85 +143,116 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
         }
     }
 
+    /**
+     * Wraps the artifact's WAR into an EAR. If an EAR cache is set, an EAR built
+     * earlier from the same WAR bytes and the same application.xml is reused
+     * instead of being built again.
+     */
     public void generateEAR(Artifact artifact, File destination,String earLevel) {
-        byte[] buf = new byte[1024];
-        ZipOutputStream out = null;
-        FileInputStream in = null;
+        generateEAR(artifact, destination, earLevel, LOCAL_ASSEMBLER);
+    }
+
+    /**
+     * Wraps the artifact's WAR into an EAR written by the given assembler.
+     */
+    public void generateEAR(Artifact artifact, File destination,String earLevel, EarAssembler assembler) {
+        String displayName = StringUtils.trimToNull(artifact.getAppName());
+        if(displayName == null) {
+        	displayName = artifact.getSourcePath().getName();
+        }
+        artifact.setContentDigest(generateEAR(Collections.singletonList(artifact), displayName, destination, earLevel, assembler));
+    }
+
+    /**
+     * Wraps several WARs into one EAR with a web module per WAR. Each module keeps
+     * the context root of its WAR, so the WARs must have distinct file names and
+     * distinct context roots.
+     *
+     * @return the digest of the WARs and the application.xml the EAR was built from
+     */
+    public String generateEAR(List<Artifact> wars, String displayName, File destination,String earLevel) {
+        return generateEAR(wars, displayName, destination, earLevel, LOCAL_ASSEMBLER);
+    }
+
+    /**
+     * Wraps several WARs into one EAR written by the given assembler. Only the
+     * metadata and digest of the WARs are used here, so they need not be readable
+     * locally if both are already set on the artifacts.
+     *
+     * @return the digest of the WARs and the application.xml the EAR was built from
+     */
+    public String generateEAR(List<Artifact> wars, String displayName, File destination,String earLevel, EarAssembler assembler) {
+        String names = getModuleNames(wars);
         try {
-            out = new ZipOutputStream(new FileOutputStream(destination));
-            in = new FileInputStream(artifact.getSourcePath());
-            out.putNextEntry(new ZipEntry(artifact.getSourcePath().getName()));
-            int len;
-            while ((len = in.read(buf)) > 0) {
-                out.write(buf, 0, len);
-            }
-            out.closeEntry();
-            out.putNextEntry(new ZipEntry("META-INF/"));
-            out.closeEntry();
-            out.putNextEntry(new ZipEntry("META-INF/application.xml"));
-            out.write(getApplicationXML(artifact,earLevel).getBytes(Charset.forName("UTF-8")));
-            out.closeEntry();
-            out.close();
-        } catch (Exception e) {
+            String applicationXml = getApplicationXML(wars,displayName,earLevel);
+            String[] parts = new String[wars.size() + 1];
+            for(int i=0;i<wars.size();i++) {
+                parts[i] = getArchiveDigest(wars.get(i));
+            }
+            parts[wars.size()] = applicationXml;
+            String key = DigestUtilities.digest(parts);
+            if(earCache != null) {
+                if(earCache.copyTo(key, destination)) {
+                    earCacheHits.incrementAndGet();
+                    if(buildListener != null) {
+                        buildListener.getLogger().println("Reusing cached EAR for '"+names+"'");
+                    }
+                    return key;
+                }
+                earCacheMisses.incrementAndGet();
+            }
+            assembler.assemble(applicationXml, wars, destination);
+            if(earCache != null) {
+                earCache.put(key, destination);
+            }
+            return key;
+        } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-        	if(out != null) {
-        		try {
-					out.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-        	}
-        	if(in != null) {
-        		try {
-					in.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-        	}
+            throw new DeploymentServiceException("Failed to generate EAR for '"+names+"': "+e.getMessage(),e);
         }
     }
 
+    private static final EarAssembler LOCAL_ASSEMBLER = new EarAssembler() {
+        public void assemble(String applicationXml, List<Artifact> modules, File destination) throws IOException {
+            EarBuilder builder = new EarBuilder(applicationXml);
+            for(Artifact module:modules) {
+                builder.addModule(module.getSourcePath());
+            }
+            builder.build(destination);
+        }
+    };
+
+    private String getModuleNames(List<Artifact> wars) {
+        List<String> names = new ArrayList<String>();
+        for(Artifact war:wars) {
+            names.add(war.getSourcePath().getName());
+        }
+        return StringUtils.join(names, ", ");
+    }
+
     /*
-    This method tries to read ibm-web-ext.xml and extract the value of context-root.
-    If any exception is thrown, it will fall back to the WAR name.
+    This method uses the context-root of ibm-web-ext.xml found by the archive inspection.
+    If there is none, it will fall back to the WAR name.
      */
     private String getContextRoot(Artifact artifact) {
-    	ZipFile zipFile = null;
-        try {
-        	if(artifact.getContext() != null) {
-        		return artifact.getContext();
-        	}
-            // open WAR and find ibm-web-ext.xml
-            zipFile = new ZipFile(artifact.getSourcePath());
-            ZipEntry webExt = zipFile.getEntry("WEB-INF/ibm-web-ext.xml");
-            if(webExt != null) { //not an IBM based WAR
-	            InputStream webExtContent = zipFile.getInputStream(webExt);
-	
-	            // parse ibm-web-ext.xml
-	            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-	            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-	            Document doc = dBuilder.parse(webExtContent);
-	
-	            // find uri attribute in context-root element
-	            Element contextRoot = (Element) doc.getElementsByTagName("context-root").item(0);
-	            String uri = contextRoot.getAttribute("uri");
-	            uri = uri.startsWith("/") ? uri : "/" + uri;
-	            return uri;
-            }
-            return getContextRootFromWarName(artifact);            		
-        } catch (Exception e) {            
-        	e.printStackTrace();
+        if(artifact.getContext() != null) {
+            return artifact.getContext();
+        }
+        ArchiveMetadata metadata = artifact.getMetadata();
+        if(metadata == null) {
+            try {
+                metadata = ArchiveInspector.inspect(artifact.getSourcePath());
+                artifact.setMetadata(metadata);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return getContextRootFromWarName(artifact);
+            }
+        }
+        String uri = StringUtils.trimToNull(metadata.getContextRoot());
+        if(uri == null) { //not an IBM based WAR
             return getContextRootFromWarName(artifact);
-        } finally {
-        	if(zipFile != null) {
-        		try {
-					zipFile.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-        	}
         }
+        return uri.startsWith("/") ? uri : "/" + uri;
     }
     
     private String getContextRootFromWarName(Artifact artifact) {
@@ -200,23 +260,31 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
     	return warName.substring(0, warName.lastIndexOf("."));
     }
 
-    private String getApplicationXML(Artifact artifact,String earLevel) {
-        String contextRoot = getContextRoot(artifact).trim();
-        String warName = artifact.getSourcePath().getName();
-        String displayName = StringUtils.trimToNull(artifact.getAppName());
-        if(displayName == null) {
-        	displayName = warName;
-        }        
-        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-                                "<application xmlns=\"http://java.sun.com/xml/ns/javaee\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "+getSchemaVersion(earLevel)+">\n" +
-                                "  <description>"+warName+" was deployed using WebSphere Deployer Plugin</description>\n" +
-                                "  <display-name>"+displayName+"</display-name>\n" +
-                                "  <module>\n" +
+    private String getApplicationXML(List<Artifact> wars,String displayName,String earLevel) {
+        StringBuilder modules = new StringBuilder();
+        Set<String> warNames = new HashSet<String>();
+        Set<String> contextRoots = new HashSet<String>();
+        for(Artifact war:wars) {
+            String contextRoot = getContextRoot(war).trim();
+            String warName = war.getSourcePath().getName();
+            if(!warNames.add(warName)) {
+            	throw new DeploymentServiceException("Cannot bundle more than one WAR named '"+warName+"' into an EAR");
+            }
+            if(!contextRoots.add(contextRoot)) {
+            	throw new DeploymentServiceException("Cannot bundle '"+warName+"' into an EAR: another WAR already uses context root '"+contextRoot+"'");
+            }
+            modules.append("  <module>\n" +
                                 "    <web>\n" +
                                 "      <web-uri>"+warName+"</web-uri>\n" +
                                 "      <context-root>"+contextRoot+"</context-root>\n" +
                                 "    </web>\n" +
-                                "  </module>\n" +
+                                "  </module>\n");
+        }
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                                "<application xmlns=\"http://java.sun.com/xml/ns/javaee\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "+getSchemaVersion(earLevel)+">\n" +
+                                "  <description>"+getModuleNames(wars)+" was deployed using WebSphere Deployer Plugin</description>\n" +
+                                "  <display-name>"+displayName+"</display-name>\n" +
+                                modules +
                                 "</application>";
     }
     
@@ -228,58 +296,467 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
     	}
     }
 
-    public String getAppName(String path) {
-        return getAppName(new File(path));
-    }
-
-    public String getAppName(File file) {
+    /**
+     * Reads the archive in a single AppDeploymentController session: walks all
+     * deployment tasks, validates them and saves the result. The options derived
+     * from the archive are kept on the artifact for {@link #buildDeploymentPreferences}.
+     * <p>
+     * If an options cache is set, a validated result stored earlier for the same
+     * archive and binding settings is reused and the archive is not read at all.
+     *
+     * @return the application name defined by the archive
+     */
+    public String readArchive(Artifact artifact) {
+        long start = System.currentTimeMillis();
         try {
-            Hashtable<String,Object> preferences = new Hashtable<String,Object>();
-            preferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
-
-            preferences.put(AppConstants.APPDEPL_DFLTBNDG, new Properties());
-
-            AppDeploymentController controller = AppDeploymentController.readArchive(file.getAbsolutePath(),preferences);
+            String cacheKey = null;
+            if(optionsCache != null) {
+                cacheKey = getOptionsCacheKey(artifact);
+                CachedOptions cached = loadCachedOptions(cacheKey);
+                if(cached != null) {
+                    optionsCacheHits.incrementAndGet();
+                    artifact.setArchiveOptions(cached.options);
+                    if(buildListener != null) {
+                        buildListener.getLogger().println("Reusing cached deployment options for '"+artifact.getSourcePath().getName()+"'");
+                    }
+                    return cached.appName;
+                }
+                optionsCacheMisses.incrementAndGet();
+            }
+            Hashtable<String,Object> defaultBindingPreferences = new Hashtable<String,Object>();
+            Properties defaultBinding = new Properties();
+            defaultBindingPreferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
+            /** handle default binding **/
+            if(StringUtils.trimToNull(artifact.getVirtualHost()) != null) { 
+            	defaultBinding.put(AppConstants.APPDEPL_DFLTBNDG_VHOST, artifact.getVirtualHost());	
+            }        
+            /** end handle default binding **/
+            defaultBindingPreferences.put(AppConstants.APPDEPL_DFLTBNDG, defaultBinding);
+            AppDeploymentController controller = AppDeploymentController.readArchive(artifact.getSourcePath().getAbsolutePath(), defaultBindingPreferences);
 
+            int tasks = 0;
             AppDeploymentTask task = controller.getFirstTask();
             while (task != null) {
                 String[][] data = task.getTaskData();
                 task.setTaskData(data);
                 task = controller.getNextTask();
+                tasks++;
+            }
+
+            String[] validationResult = controller.validate();
+            if (validationResult != null && validationResult.length > 0) {
+               throw new DeploymentServiceException("Unable to complete all task data for deployment preparation. Reason: " + Arrays.toString(validationResult));
             }
-            controller.saveAndClose();
 
-            Hashtable<String,Object> config = controller.getAppDeploymentSavedResults();
-            return (String)config.get(AppConstants.APPDEPL_APPNAME);
+            controller.saveAndClose(); //block editing of EAR upon validation
+
+            Hashtable<String,Object> options = controller.getAppOptions();
+            artifact.setArchiveOptions(options);
+            String appName = (String)controller.getAppDeploymentSavedResults().get(AppConstants.APPDEPL_APPNAME);
+            if(optionsCache != null) {
+                storeCachedOptions(cacheKey, new CachedOptions(appName, options));
+            }
+            if(buildListener != null) {
+                buildListener.getLogger().println("Read archive '"+artifact.getSourcePath().getName()+"' ("+tasks+" deployment tasks) in "+(System.currentTimeMillis() - start)+" ms");
+            }
+            return appName;
+        } catch(DeploymentServiceException e) {
+            throw e;
         } catch(Exception e) {
             e.printStackTrace();
             throw new DeploymentServiceException(e.getMessage(),e);
         }
     }
-    
+
+    private String getArchiveDigest(Artifact artifact) throws IOException {
+        if(artifact.getDigest() == null) {
+            artifact.setDigest(DigestUtilities.digest(artifact.getSourcePath()));
+        }
+        return artifact.getDigest();
+    }
+
+    /*
+     * The options depend on the archive and the binding settings only. The plugin and
+     * client versions are part of the key so an upgrade of either never sees old entries.
+     */
+    private String getOptionsCacheKey(Artifact artifact) throws IOException {
+        return DigestUtilities.digest(getArchiveDigest(artifact),
+                artifact.getVirtualHost(),
+                artifact.getClassLoaderOrder(),
+                artifact.getClassLoaderPolicy(),
+                artifact.getSharedLibName(),
+                artifact.getTargets(),
+                pluginVersion,
+                getClientVersion());
+    }
+
+    /**
+     * Identifies what a deployment of the artifact would produce on the server: the
+     * archive content and every setting that goes into the install options.
+     */
+    public String getDeploymentFingerprint(Artifact artifact) throws IOException {
+        return DigestUtilities.digest(getContentDigest(artifact), getSettingsFingerprint(artifact));
+    }
+
+    /**
+     * @return the digest identifying the archive content, see {@link Artifact#getContentDigest()}
+     */
+    public String getContentDigest(Artifact artifact) throws IOException {
+        String content = artifact.getContentDigest();
+        if(content == null) {
+            content = getArchiveDigest(artifact);
+        }
+        return content;
+    }
+
+    /**
+     * Identifies the settings that go into the install options, without the archive.
+     */
+    public String getSettingsFingerprint(Artifact artifact) {
+        Map<String,String> configuration = getConfiguration(artifact);
+        List<String> parts = new ArrayList<String>();
+        parts.add(getInstallFingerprint(artifact));
+        for(Map.Entry<String,String> setting:configuration.entrySet()) {
+            parts.add(setting.getKey());
+            parts.add(setting.getValue());
+        }
+        return DigestUtilities.digest(parts.toArray(new String[parts.size()]));
+    }
+
+    /**
+     * Identifies the settings that only take effect by installing the archive again,
+     * i.e. all settings except the {@link #getConfiguration configuration}.
+     */
+    public String getInstallFingerprint(Artifact artifact) {
+        return DigestUtilities.digest(artifact.getAppName(),
+                artifact.getTargets(),
+                artifact.getModuleTargets(),
+                artifact.getContext(),
+                artifact.getInstallPath(),
+                artifact.getEdition(),
+                String.valueOf(artifact.isPrecompile()),
+                String.valueOf(artifact.isDistribute()),
+                pluginVersion);
+    }
+
+    /**
+     * @return the settings {@link #updateConfiguration} can change on an installed
+     *   application, by name
+     */
+    public Map<String,String> getConfiguration(Artifact artifact) {
+        Map<String,String> configuration = new LinkedHashMap<String,String>();
+        configuration.put(SETTING_CLASSLOADER_ORDER, StringUtils.trimToEmpty(artifact.getClassLoaderOrder()));
+        configuration.put(SETTING_CLASSLOADER_POLICY, StringUtils.trimToEmpty(artifact.getClassLoaderPolicy()));
+        configuration.put(SETTING_SHARED_LIBRARY, StringUtils.trimToEmpty(artifact.getSharedLibName()));
+        configuration.put(SETTING_RELOADING, String.valueOf(artifact.isReloading()));
+        configuration.put(SETTING_JSP_RELOADING, String.valueOf(artifact.isJspReloading()));
+        configuration.put(SETTING_VIRTUAL_HOST, StringUtils.trimToEmpty(artifact.getVirtualHost()));
+        return configuration;
+    }
+
+    /**
+     * Applies changed configuration settings to the installed application without
+     * installing the archive again: class loading, reloading and the shared library
+     * in the application's deployment configuration, the virtual host and JSP
+     * reloading through the application's deployment tasks.
+     * <p>
+     * All changes are made in one configuration session, which is saved only once
+     * every one of them has been made and is discarded otherwise.
+     *
+     * @param changed names of the settings (see {@link #getConfiguration}) to apply
+     * @return false, having changed nothing, if a setting can't be applied this way
+     */
+    public boolean updateConfiguration(Artifact artifact, Set<String> changed) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot update configuration, no connection to IBM WebSphere Application Server exists");
+        }
+        if((changed.contains(SETTING_CLASSLOADER_ORDER) && StringUtils.trimToNull(artifact.getClassLoaderOrder()) == null)
+                || (changed.contains(SETTING_CLASSLOADER_POLICY) && StringUtils.trimToNull(artifact.getClassLoaderPolicy()) == null)) {
+            log.fine("Reverting class loading to the server default requires a redeployment");
+            return false;
+        }
+        try {
+            Hashtable<String,Object> preferences = new Hashtable<String,Object>();
+            preferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
+            AppManagement appManagementProxy = getAppManagement();
+            ConfigService configService = new ConfigServiceProxy(client);
+            Session session = new Session();
+            try {
+                Vector<AppDeploymentTask> tasks = null;
+                if(changed.contains(SETTING_VIRTUAL_HOST) || changed.contains(SETTING_JSP_RELOADING)) {
+                    tasks = appManagementProxy.getApplicationInfo(artifact.getAppName(), preferences, session.toString());
+                    if(changed.contains(SETTING_VIRTUAL_HOST) && !setTaskColumn(tasks, "MapWebModToVH", "virtualHost", artifact.getVirtualHost())) {
+                        return false;
+                    }
+                    if(changed.contains(SETTING_JSP_RELOADING)) {
+                        if(!setTaskColumn(tasks, "JSPReloadForWebMod", "JSPReloadEnabled", artifact.isJspReloading() ? "Yes" : "No")
+                                || !setTaskColumn(tasks, "JSPReloadForWebMod", "JSPReloadInterval", artifact.isJspReloading() ? "15" : "0")) {
+                            return false;
+                        }
+                    }
+                }
+                ObjectName applicationDeployment = getApplicationDeployment(configService, session, artifact);
+                if(applicationDeployment == null) {
+                    throw new DeploymentServiceException("Application '"+artifact.getAppName()+"' is not installed");
+                }
+                ObjectName classloader = null;
+                if(changed.contains(SETTING_CLASSLOADER_ORDER) || changed.contains(SETTING_SHARED_LIBRARY)) {
+                    // the application's own class loader, not those of its web modules
+                    AttributeList classloaderAttributes = (AttributeList) configService.getAttribute(session, applicationDeployment, "classloader");
+                    if(classloaderAttributes == null) {
+                        return false;
+                    }
+                    classloader = ConfigServiceHelper.createObjectName(classloaderAttributes);
+                }
+                AttributeList attributes = new AttributeList();
+                if(changed.contains(SETTING_CLASSLOADER_POLICY)) {
+                    attributes.add(new Attribute("warClassLoaderPolicy", "1".equals(artifact.getClassLoaderPolicy().trim()) ? "SINGLE" : "MULTIPLE"));
+                }
+                if(changed.contains(SETTING_RELOADING)) {
+                    attributes.add(new Attribute("reloadEnabled", Boolean.valueOf(artifact.isReloading())));
+                    attributes.add(new Attribute("reloadInterval", Long.valueOf(artifact.isReloading() ? 15 : 0)));
+                }
+                if(!attributes.isEmpty()) {
+                    configService.setAttributes(session, applicationDeployment, attributes);
+                }
+                if(changed.contains(SETTING_CLASSLOADER_ORDER)) {
+                    AttributeList mode = new AttributeList();
+                    mode.add(new Attribute("mode", "1".equals(artifact.getClassLoaderOrder().trim()) ? "PARENT_LAST" : "PARENT_FIRST"));
+                    configService.setAttributes(session, classloader, mode);
+                }
+                if(changed.contains(SETTING_SHARED_LIBRARY)) {
+                    setSharedLibrary(configService, session, classloader, artifact.getSharedLibName());
+                }
+                if(tasks != null) {
+                    appManagementProxy.setApplicationInfo(artifact.getAppName(), preferences, session.toString(), tasks);
+                }
+                configService.save(session, false);
+            } finally {
+                configService.discard(session);
+            }
+            if(buildListener != null) {
+                buildListener.getLogger().println("Applied "+StringUtils.join(changed, ", ")+" to '"+artifact.getAppName()+"' without redeploying");
+            }
+            return true;
+        } catch (DeploymentServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new DeploymentServiceException("Failed to update configuration of '"+artifact.getAppName()+"': "+e.getMessage(),e);
+        }
+    }
+
+    /*
+     * Sets a column in every row of a task. The first row of the task data holds the
+     * column names.
+     */
+    private boolean setTaskColumn(Vector<AppDeploymentTask> tasks, String taskName, String column, String value) {
+        for(AppDeploymentTask task:tasks) {
+            if(!taskName.equals(task.getName())) {
+                continue;
+            }
+            String[][] data = task.getTaskData();
+            if(data == null || data.length == 0) {
+                return false;
+            }
+            int index = Arrays.asList(data[0]).indexOf(column);
+            if(index < 0) {
+                log.fine("Task "+taskName+" has no column "+column);
+                return false;
+            }
+            for(int row=1;row<data.length;row++) {
+                data[row][index] = value;
+            }
+            task.setTaskData(data);
+            return true;
+        }
+        log.fine("Application has no task "+taskName);
+        return false;
+    }
+
+    /*
+     * Replaces the library references of the application class loader with a
+     * reference to the given shared library, or none
+     */
+    private void setSharedLibrary(ConfigService configService, Session session, ObjectName classloader, String sharedLibName) throws Exception {
+        ObjectName[] references = configService.queryConfigObjects(session, classloader, ConfigServiceHelper.createObjectName(null, "LibraryRef"), null);
+        if(references != null) {
+            for(ObjectName reference:references) {
+                configService.deleteConfigData(session, reference);
+            }
+        }
+        if(StringUtils.trimToNull(sharedLibName) != null) {
+            AttributeList attributes = new AttributeList();
+            attributes.add(new Attribute("libraryName", sharedLibName.trim()));
+            attributes.add(new Attribute("sharedClassloader", Boolean.TRUE));
+            configService.createConfigData(session, classloader, "libraries", "LibraryRef", attributes);
+        }
+    }
+
+    /**
+     * Reads the fingerprint stored by {@link #setDeployedFingerprint} in the custom
+     * properties of the installed application.
+     *
+     * @return the fingerprint, or null if the application is not installed or has none
+     */
+    public String getDeployedFingerprint(Artifact artifact) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot read deployment fingerprint, no connection to IBM WebSphere Application Server exists");
+        }
+        try {
+            ConfigService configService = new ConfigServiceProxy(client);
+            Session session = new Session();
+            try {
+                ObjectName applicationDeployment = getApplicationDeployment(configService, session, artifact);
+                if(applicationDeployment == null) {
+                    return null;
+                }
+                ObjectName property = getFingerprintProperty(configService, session, applicationDeployment);
+                return property != null ? (String) configService.getAttribute(session, property, "value") : null;
+            } finally {
+                configService.discard(session);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new DeploymentServiceException("Could not read deployment fingerprint of '"+artifact.getAppName()+"': "+e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Stores the fingerprint as a custom property of the installed application, so
+     * it is visible to every Jenkins that deploys to the cell.
+     */
+    public void setDeployedFingerprint(Artifact artifact, String fingerprint) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot store deployment fingerprint, no connection to IBM WebSphere Application Server exists");
+        }
+        try {
+            ConfigService configService = new ConfigServiceProxy(client);
+            Session session = new Session();
+            try {
+                ObjectName applicationDeployment = getApplicationDeployment(configService, session, artifact);
+                if(applicationDeployment == null) {
+                    throw new DeploymentServiceException("Application '"+artifact.getAppName()+"' is not installed");
+                }
+                AttributeList attributes = new AttributeList();
+                attributes.add(new Attribute("value", fingerprint));
+                ObjectName property = getFingerprintProperty(configService, session, applicationDeployment);
+                if(property != null) {
+                    configService.setAttributes(session, property, attributes);
+                } else {
+                    attributes.add(new Attribute("name", FINGERPRINT_PROPERTY));
+                    configService.createConfigData(session, applicationDeployment, "properties", "Property", attributes);
+                }
+                configService.save(session, false);
+            } finally {
+                configService.discard(session);
+            }
+        } catch (DeploymentServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new DeploymentServiceException("Could not store deployment fingerprint of '"+artifact.getAppName()+"': "+e.getMessage(),e);
+        }
+    }
+
+    private ObjectName getApplicationDeployment(ConfigService configService, Session session, Artifact artifact) throws Exception {
+        ObjectName[] deployments = configService.resolve(session, "Deployment="+artifact.getAppName());
+        if(deployments == null || deployments.length == 0) {
+            return null;
+        }
+        ObjectName[] applicationDeployments = configService.queryConfigObjects(session, deployments[0], ConfigServiceHelper.createObjectName(null, "ApplicationDeployment"), null);
+        return applicationDeployments != null && applicationDeployments.length > 0 ? applicationDeployments[0] : null;
+    }
+
+    private ObjectName getFingerprintProperty(ConfigService configService, Session session, ObjectName applicationDeployment) throws Exception {
+        ObjectName[] properties = configService.queryConfigObjects(session, applicationDeployment, ConfigServiceHelper.createObjectName(null, "Property"), null);
+        if(properties != null) {
+            for(ObjectName property:properties) {
+                if(FINGERPRINT_PROPERTY.equals(configService.getAttribute(session, property, "name"))) {
+                    return property;
+                }
+            }
+        }
+        return null;
+    }
+
+    private CachedOptions loadCachedOptions(String key) {
+        File entry = optionsCache.get(key);
+        if(entry == null) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                return (CachedOptions) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch(Exception e) {
+            log.fine("Ignoring unreadable cached deployment options "+entry+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    private void storeCachedOptions(String key, CachedOptions options) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(options);
+            out.close();
+            optionsCache.put(key, bytes.toByteArray());
+        } catch(IOException e) {
+            log.warning("Failed to cache deployment options: "+e.getMessage());
+        }
+    }
+
+    /*
+     * Identifies the WAS admin client on the classpath: its implementation version or,
+     * if the jar doesn't declare one, the jar's name, size and modification time.
+     */
+    private static synchronized String getClientVersion() {
+        if(clientVersion == null) {
+            Package clientPackage = AppDeploymentController.class.getPackage();
+            String version = clientPackage != null ? clientPackage.getImplementationVersion() : null;
+            if(version == null) {
+                version = "unknown";
+                try {
+                    CodeSource source = AppDeploymentController.class.getProtectionDomain().getCodeSource();
+                    if(source != null && "file".equals(source.getLocation().getProtocol())) {
+                        File jar = new File(source.getLocation().toURI());
+                        version = jar.getName()+":"+jar.length()+":"+jar.lastModified();
+                    }
+                } catch(Exception e) {
+                    log.fine("Failed to locate the WebSphere admin client: "+e.getMessage());
+                }
+            }
+            clientVersion = version;
+        }
+        return clientVersion;
+    }
+
+    private static class CachedOptions implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String appName;
+        private final Hashtable<String,Object> options;
+
+        CachedOptions(String appName, Hashtable<String,Object> options) {
+            this.appName = appName;
+            this.options = options;
+        }
+    }
+
     private Hashtable<String,Object> buildDeploymentPreferences(Artifact artifact) throws Exception {
     	if(artifact.getPreferences().size() > 0) {
     		return artifact.getPreferences();
     	}
-        Hashtable<String,Object> defaultBindingPreferences = new Hashtable<String,Object>();
-        Properties defaultBinding = new Properties();
-        defaultBindingPreferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
-        /** handle default binding **/
-        if(StringUtils.trimToNull(artifact.getVirtualHost()) != null) { 
-        	defaultBinding.put(AppConstants.APPDEPL_DFLTBNDG_VHOST, artifact.getVirtualHost());	
-        }        
-        /** end handle default binding **/
-        defaultBindingPreferences.put(AppConstants.APPDEPL_DFLTBNDG, defaultBinding);                
-        AppDeploymentController controller = AppDeploymentController.readArchive(artifact.getSourcePath().getAbsolutePath(), defaultBindingPreferences);
-        
-        String[] validationResult = controller.validate();
-        if (validationResult != null && validationResult.length > 0) {
-           throw new DeploymentServiceException("Unable to complete all task data for deployment preparation. Reason: " + Arrays.toString(validationResult));
+        Hashtable<String, Object> options = artifact.getArchiveOptions();
+        if(options == null) {
+        	readArchive(artifact);
+        	options = artifact.getArchiveOptions();
         }
-
-        controller.saveAndClose(); //block editing of EAR upon validation
-        
-		Hashtable<String, Object> options = controller.getAppOptions();
         options.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
         options.put(AppConstants.APPDEPL_ARCHIVE_UPLOAD, Boolean.TRUE);
         options.put(AppConstants.APPDEPL_PRECOMPILE_JSP, artifact.isPrecompile());
@@ -322,62 +799,292 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
         	options.put(AppConstants.APPDEPL_WEB_CONTEXTROOT, artifact.getContext());
         }  
 
-        Hashtable<String,Object> module2server = new Hashtable<String,Object>();
-        module2server.put("*", getFormattedTargets(artifact.getTargets()));
-        options.put(AppConstants.APPDEPL_MODULE_TO_SERVER, module2server); 
+        options.put(AppConstants.APPDEPL_MODULE_TO_SERVER, getModuleToServer(artifact));
         artifact.setPreferences(options);
         return options;
     }
 
+    /*
+     * All modules go to the artifact's targets, unless module targets are set: then
+     * every module is mapped on its own, to its module targets or the default ones.
+     */
+    private Hashtable<String,Object> getModuleToServer(Artifact artifact) {
+        Hashtable<String,Object> module2server = new Hashtable<String,Object>();
+        Map<String,String> moduleTargets = getModuleTargets(artifact);
+        List<ArchiveMetadata.Module> modules = artifact.getMetadata() != null ? artifact.getMetadata().getModules() : Collections.<ArchiveMetadata.Module>emptyList();
+        if(moduleTargets.isEmpty() || modules.isEmpty()) {
+            module2server.put("*", getFormattedTargets(artifact.getTargets()));
+            return module2server;
+        }
+        for(ArchiveMetadata.Module module:modules) {
+            if(ArchiveMetadata.MODULE_JAVA.equals(module.getType())) {
+                continue; //application clients don't run on servers
+            }
+            String targets = moduleTargets.get(module.getUri());
+            module2server.put(getModuleKey(module), getFormattedTargets(targets != null ? targets : artifact.getTargets()));
+        }
+        return module2server;
+    }
+
+    /*
+     * Module targets by module URI, in the format of the artifact's targets
+     */
+    private Map<String,String> getModuleTargets(Artifact artifact) {
+        Map<String,String> moduleTargets = new LinkedHashMap<String,String>();
+        if(StringUtils.trimToNull(artifact.getModuleTargets()) == null) {
+            return moduleTargets;
+        }
+        for(StringTokenizer st = new StringTokenizer(artifact.getModuleTargets().trim(),"\r\n");st.hasMoreTokens();) {
+            String line = st.nextToken().trim();
+            int separator = line.indexOf('=');
+            if(separator <= 0) {
+                throw new DeploymentServiceException("Invalid module target '"+line+"', expected <module>=<target>");
+            }
+            String module = line.substring(0, separator).trim();
+            String target = line.substring(separator + 1).trim();
+            String targets = moduleTargets.get(module);
+            moduleTargets.put(module, targets != null ? targets + "\n" + target : target);
+        }
+        return moduleTargets;
+    }
+
+    /*
+     * AppManagement identifies a module by its URI and its deployment descriptor
+     */
+    private String getModuleKey(ArchiveMetadata.Module module) {
+        if(ArchiveMetadata.MODULE_WEB.equals(module.getType())) {
+            return module.getUri()+"+WEB-INF/web.xml";
+        } else if(ArchiveMetadata.MODULE_EJB.equals(module.getType())) {
+            return module.getUri()+"+META-INF/ejb-jar.xml";
+        }
+        return module.getUri()+"+META-INF/ra.xml";
+    }
+
+    /*
+     * An archive staged where the server can read it is installed from there;
+     * otherwise the local archive is uploaded.
+     */
+    private String getArchivePath(Artifact artifact) {
+        if(artifact.getServerPath() != null) {
+            return artifact.getServerPath();
+        }
+        return artifact.getSourcePath().getAbsolutePath();
+    }
+
+    private Hashtable<String,Object> buildInstallPreferences(Artifact artifact) throws Exception {
+        Hashtable<String,Object> preferences = buildDeploymentPreferences(artifact);
+        preferences.put(AppConstants.APPDEPL_ARCHIVE_UPLOAD, Boolean.valueOf(artifact.getServerPath() == null));
+        return preferences;
+    }
+
+    /**
+     * Uploads the archive into the deployment manager's staging location while the
+     * running application is untouched. The following install or update then uses
+     * the staged copy instead of uploading the archive again.
+     */
+    public void preStageArtifact(Artifact artifact) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot pre-stage artifact, no connection to IBM WebSphere Application Server exists");
+        }
+        long start = System.currentTimeMillis();
+        try {
+            FileTransferClient transfer = FileTransferFactory.getFileTransferClient(client);
+            String name = "jenkins-"+System.currentTimeMillis()+"-"+artifact.getSourcePath().getName();
+            transfer.uploadFile(artifact.getSourcePath(), name);
+            String location = transfer.getServerStagingLocation();
+            if(location.endsWith("/") || location.endsWith("\\")) {
+                artifact.setServerPath(location + name);
+            } else {
+                artifact.setServerPath(location + "/" + name);
+            }
+            if(buildListener != null) {
+                buildListener.getLogger().println("Pre-staged '"+artifact.getSourcePath().getName()+"' at "+artifact.getServerPath()+" in "+(System.currentTimeMillis() - start)+" ms");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new DeploymentServiceException("Failed to pre-stage artifact: "+e.getMessage(),e);
+        }
+    }
+
+    /**
+     * Deletes the copy left by {@link #preStageArtifact} from the deployment manager.
+     */
+    public void removePreStagedArtifact(Artifact artifact) {
+        String serverPath = artifact.getServerPath();
+        if(serverPath == null) {
+            return;
+        }
+        String name = serverPath.substring(Math.max(serverPath.lastIndexOf('/'), serverPath.lastIndexOf('\\')) + 1);
+        try {
+            FileTransferFactory.getFileTransferClient(client).deleteFile(name);
+        } catch (Exception e) {
+            log.warning("Failed to delete pre-staged archive "+serverPath+": "+e.getMessage());
+        }
+    }
+
     public void installArtifact(Artifact artifact) {
         if(!isConnected()) {
             throw new DeploymentServiceException("Cannot install artifact, no connection to IBM WebSphere Application Server exists");
         }
         try {        	
-            NotificationFilterSupport filterSupport = createFilterSupport();
-            DeploymentNotificationListener notifyListener = new DeploymentNotificationListener(getAdminClient(), filterSupport, "Install " + artifact.getAppName(),AppNotification.INSTALL,buildListener,verbose);            
-            
-            AppManagement appManagementProxy = AppManagementProxy.getJMXProxyForClient(getAdminClient());
-            appManagementProxy.installApplication(artifact.getSourcePath().getAbsolutePath(),artifact.getAppName(),buildDeploymentPreferences(artifact), null);
-            
-			while(!notifyListener.hasEventTriggered()) {
-				synchronized (notifyListener) {
-					if(!notifyListener.hasEventTriggered()) {
-						notifyListener.wait();	
-					}
-				}	
-			}
+            OperationFuture operation = getNotificationDispatcher().expect(AppNotification.INSTALL, artifact.getAppName(), buildListener, verbose);
+            try {
+            	AppManagement appManagementProxy = getAppManagement();
+            	appManagementProxy.installApplication(getArchivePath(artifact),artifact.getAppName(),buildInstallPreferences(artifact), null);
+            } catch(Exception e) {
+            	operation.cancel(false);
+            	throw e;
+            }
+            awaitOperation(operation, "Installation of '"+artifact.getAppName()+"'");
 
-            if(!notifyListener.isSuccessful()) {
-               throw new DeploymentServiceException("Application not successfully deployed: " + notifyListener.getMessage());
+            if(!operation.isSuccessful()) {
+               throw new DeploymentServiceException("Application not successfully deployed: " + operation.getMessage());
             }
+            recordInstalled(artifact, true);
         } catch (Exception e) {
             e.printStackTrace();
             throw new DeploymentServiceException("Failed to install artifact: "+e.getMessage());
         }
     }
     
+    /**
+     * Applies only the given changes to the installed application with a partial
+     * application update, instead of replacing the whole archive.
+     */
+    public void updateArtifactPartially(Artifact artifact, ArchiveManifest manifest, ArchiveManifest.Changes changes) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot update artifact, no connection to IBM WebSphere Application Server exists");
+        }
+        File content = null;
+        try {
+            long start = System.currentTimeMillis();
+            content = File.createTempFile(artifact.getAppName()+"-partial", ".zip");
+            new PartialApplicationBuilder(artifact.getSourcePath(), manifest, changes).build(content);
+            if(buildListener != null) {
+                buildListener.getLogger().println("Partial update of '"+artifact.getAppName()+"': "+changes.getChanged().size()+" changed, "+changes.getDeleted().size()+" deleted file(s), "+content.length()+" bytes, prepared in "+(System.currentTimeMillis() - start)+" ms");
+            }
+            Hashtable<String,Object> preferences = new Hashtable<String,Object>();
+            preferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
+            preferences.put(AppConstants.APPDEPL_ARCHIVE_UPLOAD, Boolean.TRUE);
+            preferences.put(AppConstants.APPUPDATE_CONTENTTYPE, AppConstants.APPUPDATE_CONTENTTYPE_PARTIALAPP);
+            OperationFuture operation = getNotificationDispatcher().expect(AppNotification.UPDATE, artifact.getAppName(), buildListener, verbose);
+            try {
+            	getAppManagement().updateApplication(artifact.getAppName(), null, content.getAbsolutePath(), AppConstants.APPUPDATE_UPDATE, preferences, null);
+            } catch(Exception e) {
+            	operation.cancel(false);
+            	throw e;
+            }
+            awaitOperation(operation, "Partial update of '"+artifact.getAppName()+"'");
+
+            if(!operation.isSuccessful()) {
+               throw new DeploymentServiceException("Application not successfully updated: " + operation.getMessage());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new DeploymentServiceException("Failed to update artifact partially: "+e.getMessage());
+        } finally {
+            if(content != null && !content.delete()) {
+                log.fine("Failed to delete "+content);
+            }
+        }
+    }
+
+    /**
+     * Replaces the given modules of the installed application, each with a module
+     * file update to its own targets. The rest of the application is not touched.
+     */
+    public void updateModules(Artifact artifact, Collection<String> modules) {
+        if(!isConnected()) {
+            throw new DeploymentServiceException("Cannot update modules, no connection to IBM WebSphere Application Server exists");
+        }
+        Hashtable<String,Object> module2server = getModuleToServer(artifact);
+        for(String uri:modules) {
+            File content = null;
+            try {
+                long start = System.currentTimeMillis();
+                content = File.createTempFile(artifact.getAppName()+"-module", uri.substring(uri.lastIndexOf('.')));
+                extractModule(artifact.getSourcePath(), uri, content);
+                Hashtable<String,Object> preferences = new Hashtable<String,Object>();
+                preferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
+                preferences.put(AppConstants.APPDEPL_ARCHIVE_UPLOAD, Boolean.TRUE);
+                preferences.put(AppConstants.APPUPDATE_CONTENTTYPE, AppConstants.APPUPDATE_CONTENTTYPE_MODULEFILE);
+                Hashtable<String,Object> moduleMapping = new Hashtable<String,Object>();
+                for(Map.Entry<String,Object> mapping:module2server.entrySet()) {
+                    if(mapping.getKey().equals("*") || mapping.getKey().startsWith(uri+"+")) {
+                        moduleMapping.put(mapping.getKey(), mapping.getValue());
+                    }
+                }
+                preferences.put(AppConstants.APPDEPL_MODULE_TO_SERVER, moduleMapping);
+                OperationFuture operation = getNotificationDispatcher().expect(AppNotification.UPDATE, artifact.getAppName(), buildListener, verbose);
+                try {
+                	getAppManagement().updateApplication(artifact.getAppName(), uri, content.getAbsolutePath(), AppConstants.APPUPDATE_UPDATE, preferences, null);
+                } catch(Exception e) {
+                	operation.cancel(false);
+                	throw e;
+                }
+                awaitOperation(operation, "Update of module '"+uri+"' of '"+artifact.getAppName()+"'");
+
+                if(!operation.isSuccessful()) {
+                   throw new DeploymentServiceException("Module '"+uri+"' not successfully updated: " + operation.getMessage());
+                }
+                if(buildListener != null) {
+                    buildListener.getLogger().println("Updated module '"+uri+"' of '"+artifact.getAppName()+"' in "+(System.currentTimeMillis() - start)+" ms");
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new DeploymentServiceException("Failed to update module '"+uri+"': "+e.getMessage());
+            } finally {
+                if(content != null && !content.delete()) {
+                    log.fine("Failed to delete "+content);
+                }
+            }
+        }
+    }
+
+    private void extractModule(File archive, String uri, File destination) throws IOException {
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            ZipEntry entry = zipFile.getEntry(uri);
+            if(entry == null) {
+                throw new IOException("Module '"+uri+"' not found in "+archive.getName());
+            }
+            InputStream in = zipFile.getInputStream(entry);
+            try {
+                FileOutputStream out = new FileOutputStream(destination);
+                try {
+                    byte[] buffer = new byte[64 * 1024];
+                    int read;
+                    while((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
 	public void updateArtifact(Artifact artifact) {
         if(!isConnected()) {
             throw new DeploymentServiceException("Cannot update artifact, no connection to IBM WebSphere Application Server exists");
         }		
         try {
-            NotificationFilterSupport filterSupport = createFilterSupport();
-            DeploymentNotificationListener notifyListener = new DeploymentNotificationListener(getAdminClient(), filterSupport, "Update " + artifact.getAppName(),AppNotification.INSTALL,buildListener,verbose);
-            
-            AppManagement appManagementProxy = AppManagementProxy.getJMXProxyForClient(getAdminClient());
-            appManagementProxy.redeployApplication(artifact.getSourcePath().getAbsolutePath(),artifact.getAppName(),buildDeploymentPreferences(artifact), null);
-            
-			while(!notifyListener.hasEventTriggered()) {
-				synchronized (notifyListener) {
-					if(!notifyListener.hasEventTriggered()) {
-						notifyListener.wait();	
-					}
-				}	
-			}
+            OperationFuture operation = getNotificationDispatcher().expect(AppNotification.INSTALL, artifact.getAppName(), buildListener, verbose);
+            try {
+            	AppManagement appManagementProxy = getAppManagement();
+            	appManagementProxy.redeployApplication(getArchivePath(artifact),artifact.getAppName(),buildInstallPreferences(artifact), null);
+            } catch(Exception e) {
+            	operation.cancel(false);
+            	throw e;
+            }
+            awaitOperation(operation, "Update of '"+artifact.getAppName()+"'");
 
-            if(!notifyListener.isSuccessful()) {
-               throw new DeploymentServiceException("Application not successfully updated: " + notifyListener.getMessage());
+            if(!operation.isSuccessful()) {
+               throw new DeploymentServiceException("Application not successfully updated: " + operation.getMessage());
             }
             
         } catch (Exception e) {
@@ -388,36 +1095,33 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
 
     public void uninstallArtifact(Artifact artifact) throws Exception {
     	try {
-			NotificationFilterSupport filterSupport = createFilterSupport();
-			DeploymentNotificationListener notifyListener = new DeploymentNotificationListener(getAdminClient(),filterSupport,"Uninstall " + artifact.getAppName(), AppNotification.UNINSTALL,buildListener,verbose);        
-
-			AppManagement appManagementProxy = AppManagementProxy.getJMXProxyForClient(getAdminClient());
-			appManagementProxy.uninstallApplication(artifact.getAppName(),buildDeploymentPreferences(artifact), null);
-			
-			while(!notifyListener.hasEventTriggered()) {
-				synchronized (notifyListener) {
-					if(!notifyListener.hasEventTriggered()) {
-						notifyListener.wait();	
-					}
-				}	
+			OperationFuture operation = getNotificationDispatcher().expect(AppNotification.UNINSTALL, artifact.getAppName(), buildListener, verbose);
+			try {
+				AppManagement appManagementProxy = getAppManagement();
+				appManagementProxy.uninstallApplication(artifact.getAppName(),buildDeploymentPreferences(artifact), null);
+			} catch(Exception e) {
+				operation.cancel(false);
+				throw e;
 			}
+			awaitOperation(operation, "Uninstallation of '"+artifact.getAppName()+"'");
 
-			if (!notifyListener.isSuccessful()) {
-				throw new DeploymentServiceException("Application not successfully undeployed: "+ notifyListener.getMessage());
+			if (!operation.isSuccessful()) {
+				throw new DeploymentServiceException("Application not successfully undeployed: "+ operation.getMessage());
 			}
+			recordInstalled(artifact, false);
 		} catch (Exception e) {
 			throw new DeploymentServiceException("Could not undeploy application", e);
 		}
     }
 
     public void startArtifact(Artifact artifact) throws Exception {
-    	startArtifact(artifact, 5);
+    	startArtifact(artifact, deploymentTimeout);
     }
     
     public void startArtifact(Artifact artifact, int deploymentTimeout) throws Exception {
 		try {			
-			AppManagement appManagementProxy = AppManagementProxy.getJMXProxyForClient(getAdminClient());	
-			if(waitForApplicationDistribution(appManagementProxy, artifact, deploymentTimeout * 60)) {
+			AppManagement appManagementProxy = getAppManagement();	
+			if(waitForApplicationDistribution(appManagementProxy, artifact, deploymentTimeout)) {
 				String targetsStarted = appManagementProxy.startApplication(artifact.getAppName(), buildDeploymentPreferences(artifact), null);
 				log.info("Application was started on the following targets: "+ targetsStarted);
 				if (targetsStarted == null) {
@@ -434,37 +1138,58 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
 		}
     }
     
-    private boolean waitForApplicationDistribution(AppManagement appManagementProxy,Artifact artifact,int secondsToWait) throws Exception {
-    	int totalSeconds = 0;
-    	NotificationFilterSupport filterSupport = createFilterSupport();
-    	DeploymentNotificationListener distributionListener = null;
-		while (checkDistributionStatus(distributionListener) != AppNotification.DISTRIBUTION_DONE && totalSeconds < secondsToWait) {
-			Thread.sleep(1000);			
-			totalSeconds++;
-			distributionListener = new DeploymentNotificationListener(getAdminClient(), filterSupport, null,AppNotification.DISTRIBUTION_STATUS_NODE,buildListener,verbose);
-			
-			synchronized (distributionListener) {
-				if(!distributionListener.hasEventTriggered()) {
-					appManagementProxy.getDistributionStatus(artifact.getAppName(),buildDeploymentPreferences(artifact), null);
-					distributionListener.wait();
-				}
-			}	
-		}    	
-		return totalSeconds <= secondsToWait;
+    /*
+     * Waits for an install/update/uninstall operation to report its outcome, but no
+     * longer than the deployment timeout. On expiry the operation is cancelled
+     * (which removes it from the dispatcher) and the last notifications received
+     * are written to the build log to help diagnose lost or stuck events.
+     */
+    private void awaitOperation(OperationFuture operation, String description) throws Exception {
+    	try {
+    		operation.get(deploymentTimeout, TimeUnit.MINUTES);
+    	} catch(TimeoutException e) {
+    		operation.cancel(false);
+    		NotificationDispatcher dispatcher = getNotificationDispatcher();
+    		List<String> recent = dispatcher.getRecentNotifications();
+    		if(buildListener != null) {
+    			buildListener.getLogger().println(description+" did not complete within "+deploymentTimeout+" minute(s). Last "+recent.size()+" notification(s) received:");
+    			for(String notification:recent) {
+    				buildListener.getLogger().println("  "+notification);
+    			}
+    		}
+    		if(dispatcher.getPendingCount() == 0) {
+    			getConnection().closeNotifications(); //start over with a fresh subscription next time
+    		}
+    		throw new DeploymentServiceException(description+" timed out after "+deploymentTimeout+" minute(s)");
+    	}
+    }
+
+    private boolean waitForApplicationDistribution(AppManagement appManagementProxy,Artifact artifact,int minutesToWait) throws Exception {
+    	DistributionTracker tracker = new DistributionTracker(getNotificationDispatcher(), appManagementProxy, artifact.getAppName(), buildDeploymentPreferences(artifact), buildListener, verbose);
+    	return tracker.await(TimeUnit.MINUTES.toMillis(minutesToWait));
     }
 
     public void stopArtifact(Artifact artifact) throws Exception {
         try {
-            AppManagementProxy.getJMXProxyForClient(getAdminClient()).stopApplication(artifact.getAppName(), buildDeploymentPreferences(artifact), null);
+            getAppManagement().stopApplication(artifact.getAppName(), buildDeploymentPreferences(artifact), null);
         } catch(Exception e) {
             e.printStackTrace();
             throw new DeploymentServiceException("Could not stop artifact '"+artifact.getAppName()+"': "+e.getMessage());
         }
     }
 
+    /**
+     * Answers from the snapshot of installed applications taken once per
+     * connection (see {@link #getInstalledApplications()}). Edition managed
+     * applications are still checked remotely, since their installed names
+     * carry the edition.
+     */
     public boolean isArtifactInstalled(Artifact artifact) {
         try {
-        	AppManagement appManagement = AppManagementProxy.getJMXProxyForClient(getAdminClient());
+        	if(StringUtils.trimToNull(artifact.getEdition()) == null) {
+        		return getInstalledApplications().contains(artifact.getAppName());
+        	}
+        	AppManagement appManagement = getAppManagement();
             return appManagement.checkIfAppExists(artifact.getAppName(), buildDeploymentPreferences(artifact), null);
         } catch(AdminException e) {
             e.printStackTrace();
@@ -478,26 +1203,69 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
 		}
     }
 
-    private NotificationFilterSupport createFilterSupport(){
-        NotificationFilterSupport filterSupport = new NotificationFilterSupport();
-        filterSupport.enableType(AppConstants.NotificationType);
-        return filterSupport;
+    /**
+     * Returns the names of all installed applications. The list is fetched with a
+     * single remote call the first time it is needed after {@link #connect()} and
+     * is kept up to date locally by install and uninstall operations.
+     */
+    public synchronized Set<String> getInstalledApplications() throws Exception {
+    	if(installedApplications == null) {
+    		Hashtable<String,Object> preferences = new Hashtable<String,Object>();
+    		preferences.put(AppConstants.APPDEPL_LOCALE, Locale.getDefault());
+    		Vector<?> applications = getAppManagement().listApplications(preferences, null);
+    		installedApplications = new HashSet<String>();
+    		if(applications != null) {
+    			for(Object application:applications) {
+    				installedApplications.add(String.valueOf(application));
+    			}
+    		}
+    	}
+    	return Collections.unmodifiableSet(installedApplications);
+    }
+
+    /**
+     * Discards the installed application snapshot, the next check fetches it again.
+     */
+    public synchronized void refreshInstalledApplications() {
+    	installedApplications = null;
     }
 
+    private synchronized void recordInstalled(Artifact artifact, boolean installed) {
+    	if(installedApplications != null) {
+    		if(installed) {
+    			installedApplications.add(artifact.getAppName());
+    		} else {
+    			installedApplications.remove(artifact.getAppName());
+    		}
+    	}
+    }
+
+    /**
+     * Answers from the connection's cached liveness state, which a background
+     * heartbeat keeps fresh. Only if that state is older than the liveness
+     * window is the server actually probed.
+     */
     public boolean isConnected() {
-        try {
-            return client != null && client.isAlive() != null;
-        } catch(Exception e) {
-            return false;
-        }
+        return connection != null && connection.isAlive(livenessWindow);
     }
 
     public void connect() throws Exception {
-        // store the current environment, before that wsadmin client overrides it
-        storedProperties = (Properties) System.getProperties().clone();
         if(isConnected()) {
         	log.warning("Already connected to WebSphere Application Server");
+        	return;
         }
+        if(connection != null) {
+        	// the previous connection stopped answering, it must not go back to the pool
+        	connection.stopHeartbeat();
+        	if(connectionPooling) {
+        		AdminClientPool.getInstance().invalidate(connection);
+        	} else {
+        		connection.close();
+        	}
+        	connection = null;
+        	client = null;
+        }
+        refreshInstalledApplications();
         Properties config = new Properties();
         config.put (AdminClient.CONNECTOR_HOST, getHost());
         config.put (AdminClient.CONNECTOR_PORT, getPort());
@@ -506,20 +1274,30 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
         }
         
         config.put(AdminClient.CONNECTOR_TYPE, getConnectorType());
-        client = AdminClientFactory.createAdminClient(config);
-        if(client == null) {
-            throw new DeploymentServiceException("Unable to connect to IBM WebSphere Application Server @ "+getHost()+":"+getPort());
+        AdminClientPool.Key key = new AdminClientPool.Key(config, trustAll);
+        if(connectionPooling) {
+        	connection = AdminClientPool.getInstance().lease(key);
+        } else {
+        	connection = AdminClientConnection.open(key);
         }
+        client = connection.getClient();
+        connection.startHeartbeat(Math.max(livenessWindow / 2, 1000));
     }
 
     public void disconnect() {
-        // restore environment after execution
-        if (storedProperties != null) {
-            System.setProperties(storedProperties);
-            storedProperties = null;
-        }
-    	if(client != null) {
-    		client.getConnectorProperties().clear();
+    	if(verbose && buildListener != null && appManagementResolutions.get() + appManagementReuses.get() > 0) {
+    		buildListener.getLogger().println("AppManagement MBean resolutions: "+appManagementResolutions.get()+", avoided: "+appManagementReuses.get());
+    	}
+    	appManagementResolutions.set(0);
+    	appManagementReuses.set(0);
+    	if(connection != null) {
+    		connection.stopHeartbeat();
+    		if(connectionPooling) {
+    			AdminClientPool.getInstance().release(connection);
+    		} else {
+    			connection.close();
+    		}
+    		connection = null;
     		client = null;
     	}
     }
@@ -533,11 +1311,30 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
         }
     }
 
-    private AdminClient getAdminClient() throws ConnectorException {
-        if(client == null) {
+    private AdminClientConnection getConnection() {
+        AdminClientConnection current = connection;
+        if(current == null) {
             throw new DeploymentServiceException("No connection to WebSphere exists");
         }
-        return client;
+        return current;
+    }
+
+    private NotificationDispatcher getNotificationDispatcher() {
+        return getConnection().getNotificationDispatcher();
+    }
+
+    /*
+     * The AppManagement proxy is created once per connection and reused by every
+     * operation (and by later builds if the connection is pooled).
+     */
+    private AppManagement getAppManagement() throws Exception {
+        AdminClientConnection current = getConnection();
+        if(current.hasAppManagement()) {
+            appManagementReuses.incrementAndGet();
+        } else {
+            appManagementResolutions.incrementAndGet();
+        }
+        return current.getAppManagement();
     }
 
     private void injectSecurityConfiguration(Properties config) {
@@ -603,46 +1400,65 @@ public class WebSphereDeploymentService extends AbstractDeploymentService {
     	this.buildListener = listener;
     }
 
-    /*
-     * Checks the listener and figures out the aggregate distribution status of all nodes
-     */
-    private String checkDistributionStatus(DeploymentNotificationListener listener) throws MalformedObjectNameException {
-		String distributionState = AppNotification.DISTRIBUTION_UNKNOWN;
-		if (listener != null) {
-			String compositeServers = listener.getNotificationProps().getProperty(AppNotification.DISTRIBUTION_STATUS_COMPOSITE);
-			if (compositeServers != null) {
-				if(verbose) {
-					buildListener.getLogger().println("Server Composite: "+ compositeServers);
-				}
-				String[] servers = compositeServers.split("\\+");
-				int countTrue = 0, countFalse = 0, countUnknown = 0;
-				for (String server : servers) {
-					ObjectName serverObject = new ObjectName(server);
-					distributionState = serverObject.getKeyProperty("distribution");
-					if(verbose) {
-						buildListener.getLogger().println("Distributed to "+server+": "+distributionState);
-					}
-					if (distributionState.equals("true"))
-						countTrue++;
-					if (distributionState.equals("false"))
-						countFalse++;
-					if (distributionState.equals("unknown"))
-						countUnknown++;
-				}
-				if (countUnknown > 0) {
-					distributionState = AppNotification.DISTRIBUTION_UNKNOWN;
-				} else if (countFalse > 0) {
-					distributionState = AppNotification.DISTRIBUTION_NOT_DONE;
-				} else if (countTrue > 0) {
-					distributionState = AppNotification.DISTRIBUTION_DONE;
-				} else {
-					throw new DeploymentServiceException("Reported distribution status is invalid.");
-				}
-			}
-		}
-		return distributionState;
+    /**
+     * If enabled, {@link #connect()} leases a connection from the shared
+     * {@link AdminClientPool} and {@link #disconnect()} returns it there instead
+     * of discarding it.
+     */
+    public void setConnectionPooling(boolean connectionPooling) {
+    	this.connectionPooling = connectionPooling;
     }
-	
+
+    /**
+     * Sets how long (in milliseconds) a successful liveness check stays valid
+     * before {@link #isConnected()} probes the server again. Defaults to 30 seconds.
+     */
+    public void setLivenessWindow(long livenessWindow) {
+    	this.livenessWindow = livenessWindow;
+    }
+
+    /**
+     * Sets the maximum time in minutes to wait for an install, update or
+     * uninstall to complete and for the application to be distributed.
+     * Defaults to 5 minutes.
+     */
+    public void setDeploymentTimeout(int deploymentTimeout) {
+    	this.deploymentTimeout = deploymentTimeout;
+    }
+
+    /**
+     * Sets the cache used by {@link #generateEAR} to reuse previously generated EARs.
+     */
+    public void setEarCache(FileCache earCache) {
+    	this.earCache = earCache;
+    }
+
+    public int getEarCacheHits() {
+    	return earCacheHits.get();
+    }
+
+    public int getEarCacheMisses() {
+    	return earCacheMisses.get();
+    }
+
+    /**
+     * Sets the cache for the options read from archives.
+     *
+     * @param pluginVersion version of the calling plugin, entries of other versions are not used
+     */
+    public void setOptionsCache(FileCache optionsCache, String pluginVersion) {
+    	this.optionsCache = optionsCache;
+    	this.pluginVersion = pluginVersion;
+    }
+
+    public int getOptionsCacheHits() {
+    	return optionsCacheHits.get();
+    }
+
+    public int getOptionsCacheMisses() {
+    	return optionsCacheMisses.get();
+    }
+
     /**
      * Fully resynchronizes all nodes.
      */
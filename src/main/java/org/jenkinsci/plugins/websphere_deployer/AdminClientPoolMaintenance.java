@@ -0,0 +1,24 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+import org.jenkinsci.plugins.websphere.services.deployment.AdminClientPool;
+
+/**
+ * Evicts pooled WebSphere connections that have been idle for too long, so that
+ * connections don't linger once deployments to a deployment manager stop.
+ */
+@Extension
+public class AdminClientPoolMaintenance extends PeriodicWork {
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        AdminClientPool.getInstance().evictIdle();
+    }
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.MasterToSlaveFileCallable;
+
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveInspector;
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveMetadata;
+import org.jenkinsci.plugins.websphere.services.deployment.DigestUtilities;
+import org.jenkinsci.plugins.websphere.services.deployment.EarBuilder;
+
+/**
+ * Archive work that runs on the machine holding the workspace, so the archive
+ * bytes never have to travel to the controller just to be looked at. Only
+ * small results come back.
+ */
+final class ArchiveCallables {
+
+    private ArchiveCallables() {
+    }
+
+    /**
+     * The descriptor metadata and SHA-256 digest of an archive.
+     */
+    static final class Inspection implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArchiveMetadata metadata;
+        private final String digest;
+
+        Inspection(ArchiveMetadata metadata, String digest) {
+            this.metadata = metadata;
+            this.digest = digest;
+        }
+
+        ArchiveMetadata getMetadata() {
+            return metadata;
+        }
+
+        String getDigest() {
+            return digest;
+        }
+    }
+
+    /**
+     * Inspects the archive's descriptors and computes its digest.
+     */
+    static final class Inspect extends MasterToSlaveFileCallable<Inspection> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Inspection invoke(File archive, VirtualChannel channel) throws IOException {
+            return new Inspection(ArchiveInspector.inspect(archive), DigestUtilities.digest(archive));
+        }
+    }
+
+    /**
+     * Wraps WARs that are next to each other on the same machine into the EAR the
+     * callable is invoked on.
+     */
+    static final class WrapWars extends MasterToSlaveFileCallable<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String applicationXml;
+        private final List<String> wars;
+
+        WrapWars(String applicationXml, List<String> wars) {
+            this.applicationXml = applicationXml;
+            this.wars = new ArrayList<String>(wars);
+        }
+
+        public Void invoke(File destination, VirtualChannel channel) throws IOException {
+            EarBuilder builder = new EarBuilder(applicationXml);
+            for(String war:wars) {
+                builder.addModule(new File(war));
+            }
+            builder.build(destination);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.FilePath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the gathered archives into deployment units. Every archive is a unit of
+ * its own, except that with WAR bundling all WARs form one unit that is deployed
+ * as a single EAR named after the bundle.
+ */
+final class ArtifactUnits {
+
+    private ArtifactUnits() {
+    }
+
+    static List<FilePath[]> group(FilePath[] paths, boolean bundleWars) {
+        List<FilePath[]> units = new ArrayList<FilePath[]>();
+        List<FilePath> wars = new ArrayList<FilePath>();
+        for(FilePath path:paths) {
+            if(bundleWars && isWar(path)) {
+                wars.add(path);
+            } else {
+                units.add(new FilePath[] {path});
+            }
+        }
+        if(!wars.isEmpty()) {
+            units.add(wars.toArray(new FilePath[wars.size()]));
+        }
+        return units;
+    }
+
+    /**
+     * @return true if the unit is deployed as a bundle EAR, which is also the case
+     *   for a single WAR, so the application name doesn't depend on how many WARs
+     *   a build produced
+     */
+    static boolean isBundle(FilePath[] unit, boolean bundleWars) {
+        return bundleWars && isWar(unit[0]);
+    }
+
+    private static boolean isWar(FilePath path) {
+        return path.getRemote().endsWith(".war");
+    }
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.EnvVars;
+
+import java.io.File;
+import java.io.Serializable;
+
+/**
+ * What the deployment workflow needs to know about the build and where it keeps
+ * its files. Paths are local to the machine running the workflow, which is the
+ * controller or the agent selected as deployment node.
+ */
+final class DeploymentContext implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final EnvVars env;
+    private final String cacheRoot;
+    private final String stagingRoot;
+    private final String rollbackDirectory;
+    private final String pluginVersion;
+    private final String bundleName;
+
+    /**
+     * @param cacheRoot directory of the caches shared by all jobs
+     * @param stagingRoot directory for copies of archives, deleted after the deployment
+     * @param rollbackDirectory directory of the rollback repository, or null if there is none
+     * @param bundleName application name of bundled WARs
+     */
+    DeploymentContext(EnvVars env, String cacheRoot, String stagingRoot, String rollbackDirectory, String pluginVersion, String bundleName) {
+        this.env = env;
+        this.cacheRoot = cacheRoot;
+        this.stagingRoot = stagingRoot;
+        this.rollbackDirectory = rollbackDirectory;
+        this.pluginVersion = pluginVersion;
+        this.bundleName = bundleName;
+    }
+
+    EnvVars getEnv() {
+        return env;
+    }
+
+    File getCacheRoot() {
+        return new File(cacheRoot);
+    }
+
+    File getStagingRoot() {
+        return new File(stagingRoot);
+    }
+
+    File getRollbackDirectory() {
+        return rollbackDirectory != null ? new File(rollbackDirectory) : null;
+    }
+
+    String getPluginVersion() {
+        return pluginVersion;
+    }
+
+    String getBundleName() {
+        return bundleName;
+    }
+}
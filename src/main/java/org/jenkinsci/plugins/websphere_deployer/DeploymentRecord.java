@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveManifest;
+
+/**
+ * What was deployed last to an application of a cell: the fingerprint also
+ * stored on the server, the content digest and settings it was made of and,
+ * if delta or module updates are enabled, the manifest of the archive.
+ */
+final class DeploymentRecord implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static Logger log = Logger.getLogger(DeploymentRecord.class.getName());
+
+    private final String fingerprint;
+    private final String contentDigest;
+    private final String settingsFingerprint;
+    private final String installFingerprint;
+    private final HashMap<String,String> configuration;
+    private final ArchiveManifest manifest;
+
+    DeploymentRecord(String fingerprint, String contentDigest, String settingsFingerprint, String installFingerprint, Map<String,String> configuration, ArchiveManifest manifest) {
+        this.fingerprint = fingerprint;
+        this.contentDigest = contentDigest;
+        this.settingsFingerprint = settingsFingerprint;
+        this.installFingerprint = installFingerprint;
+        this.configuration = new HashMap<String,String>(configuration);
+        this.manifest = manifest;
+    }
+
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    String getContentDigest() {
+        return contentDigest;
+    }
+
+    String getSettingsFingerprint() {
+        return settingsFingerprint;
+    }
+
+    /**
+     * @return the fingerprint of the settings that require a new installation
+     */
+    String getInstallFingerprint() {
+        return installFingerprint;
+    }
+
+    /**
+     * @return the settings that can be changed on the installed application, by name
+     */
+    Map<String,String> getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the manifest of the deployed archive, or null if none was recorded
+     */
+    ArchiveManifest getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return the record stored in the file, or null if there is none or it can't be read
+     */
+    static DeploymentRecord load(File file) {
+        if(!file.isFile()) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return (DeploymentRecord) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch(Exception e) {
+            log.fine("Ignoring unreadable deployment record "+file+": "+e.getMessage());
+            return null;
+        }
+    }
+
+    void save(File file) throws IOException {
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+    }
+}
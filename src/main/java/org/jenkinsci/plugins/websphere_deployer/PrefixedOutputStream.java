@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Prefixes every line written to the build log, so that output of artifacts
+ * deployed in parallel can be told apart. Each line is written in a single call,
+ * so lines from different artifacts never interleave.
+ */
+public class PrefixedOutputStream extends LineTransformationOutputStream {
+
+    private final OutputStream out;
+    private final byte[] prefix;
+
+    public PrefixedOutputStream(OutputStream out, String prefix) {
+        this.out = out;
+        this.prefix = prefix.getBytes(Charset.forName("UTF-8"));
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        byte[] line = new byte[prefix.length + len];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        System.arraycopy(b, 0, line, prefix.length, len);
+        out.write(line);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
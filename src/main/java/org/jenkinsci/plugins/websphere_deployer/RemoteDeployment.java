@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import hudson.FilePath;
+import hudson.model.BuildListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import jenkins.security.MasterToSlaveCallable;
+
+import org.jenkinsci.plugins.websphere.services.deployment.AdminClientPool;
+
+/**
+ * Runs the complete deployment workflow on the deployment node. The artifacts
+ * must already be on that node; they are passed as local paths grouped into
+ * deployment units.
+ */
+final class RemoteDeployment extends MasterToSlaveCallable<Boolean, Exception> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final WebSphereDeployerPlugin plugin;
+    private final DeploymentContext context;
+    private final List<String[]> units;
+    private final BuildListener listener;
+
+    RemoteDeployment(WebSphereDeployerPlugin plugin, DeploymentContext context, List<String[]> units, BuildListener listener) {
+        this.plugin = plugin;
+        this.context = context;
+        this.units = units;
+        this.listener = listener;
+    }
+
+    public Boolean call() throws Exception {
+        List<FilePath[]> paths = new ArrayList<FilePath[]>();
+        for(String[] unit:units) {
+            FilePath[] unitPaths = new FilePath[unit.length];
+            for(int i=0;i<unit.length;i++) {
+                unitPaths[i] = new FilePath(new File(unit[i]));
+            }
+            paths.add(unitPaths);
+        }
+        try {
+            return plugin.deploy(context, paths, listener);
+        } finally {
+            AdminClientPool.getInstance().evictIdle(); //no periodic maintenance runs outside the controller
+        }
+    }
+}
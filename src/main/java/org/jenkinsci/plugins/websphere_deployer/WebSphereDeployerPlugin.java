@@ -4,10 +4,17 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.PluginWrapper;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
 import hudson.model.BuildListener;
 import hudson.model.Result;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.StreamBuildListener;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Notifier;
@@ -17,17 +24,41 @@ import hudson.util.FormValidation;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletException;
 
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 
 import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.websphere.services.deployment.AdminClientPool;
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveInspector;
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveManifest;
+import org.jenkinsci.plugins.websphere.services.deployment.ArchiveMetadata;
 import org.jenkinsci.plugins.websphere.services.deployment.Artifact;
 import org.jenkinsci.plugins.websphere.services.deployment.DeploymentServiceException;
+import org.jenkinsci.plugins.websphere.services.deployment.DigestUtilities;
+import org.jenkinsci.plugins.websphere.services.deployment.EarAssembler;
+import org.jenkinsci.plugins.websphere.services.deployment.FileCache;
 import org.jenkinsci.plugins.websphere.services.deployment.Server;
 import org.jenkinsci.plugins.websphere.services.deployment.WebSphereDeploymentService;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -41,9 +72,15 @@ import com.ibm.icu.text.SimpleDateFormat;
  *
  * @author Greg Peters
  */
-public class WebSphereDeployerPlugin extends Notifier {
+public class WebSphereDeployerPlugin extends Notifier implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 
 	private final static String OPERATION_REINSTALL = "1";
+	private final static int DEFAULT_MAX_PARALLEL_DEPLOYMENTS = 4;
+	private final static long EAR_CACHE_MAX_BYTES = Long.getLong(WebSphereDeployerPlugin.class.getName()+".earCacheMaxMegabytes", 2048) * 1024 * 1024;
+	private final static long OPTIONS_CACHE_MAX_BYTES = 64 * 1024 * 1024;
+	private final static long PREPARATION_STOP_TIMEOUT_SECONDS = 60;
     private final String ipAddress;
     private final String connectorType;
     private final String port;
@@ -68,6 +105,20 @@ public class WebSphereDeployerPlugin extends Notifier {
     private final boolean distribute;
     private final boolean rollback;
     private final boolean unstableDeploy;
+    private final boolean reuseConnections;
+    private final boolean parallelDeployment;
+    private final String maxParallelDeployments;
+    private final boolean bundleWars;
+    private final String deploymentNode;
+    private final String stagingPath;
+    private final String serverStagingPath;
+    private final boolean preStageUpload;
+    private final boolean skipUnchanged;
+    private final boolean deltaUpdate;
+    private final String moduleTargets;
+    private final boolean moduleUpdate;
+    private final boolean configurationUpdate;
+    private final boolean batchDeployment;
     private final WebSphereSecurity security;
 
     @DataBoundConstructor
@@ -95,7 +146,21 @@ public class WebSphereDeployerPlugin extends Notifier {
                                    boolean rollback,
                                    boolean unstableDeploy,
                                    String classLoaderPolicy,
-                                   String classLoaderOrder) {
+                                   String classLoaderOrder,
+                                   boolean reuseConnections,
+                                   boolean parallelDeployment,
+                                   String maxParallelDeployments,
+                                   boolean bundleWars,
+                                   String deploymentNode,
+                                   String stagingPath,
+                                   String serverStagingPath,
+                                   boolean preStageUpload,
+                                   boolean skipUnchanged,
+                                   boolean deltaUpdate,
+                                   String moduleTargets,
+                                   boolean moduleUpdate,
+                                   boolean configurationUpdate,
+                                   boolean batchDeployment) {
     	this.context = context;
     	this.targets = targets;
     	this.installPath = installPath;
@@ -121,6 +186,20 @@ public class WebSphereDeployerPlugin extends Notifier {
         this.applicationName = applicationName;
         this.virtualHost = virtualHost;
         this.sharedLibName = sharedLibName;
+        this.reuseConnections = reuseConnections;
+        this.parallelDeployment = parallelDeployment;
+        this.maxParallelDeployments = maxParallelDeployments;
+        this.bundleWars = bundleWars;
+        this.deploymentNode = deploymentNode;
+        this.stagingPath = stagingPath;
+        this.serverStagingPath = serverStagingPath;
+        this.preStageUpload = preStageUpload;
+        this.skipUnchanged = skipUnchanged;
+        this.deltaUpdate = deltaUpdate;
+        this.moduleTargets = moduleTargets;
+        this.moduleUpdate = moduleUpdate;
+        this.configurationUpdate = configurationUpdate;
+        this.batchDeployment = batchDeployment;
     }
     
     public String getEdition() {
@@ -183,6 +262,62 @@ public class WebSphereDeployerPlugin extends Notifier {
         return unstableDeploy;
     }
 
+    public boolean isReuseConnections() {
+        return reuseConnections;
+    }
+
+    public boolean isParallelDeployment() {
+        return parallelDeployment;
+    }
+
+    public String getMaxParallelDeployments() {
+        return maxParallelDeployments;
+    }
+
+    public boolean isBundleWars() {
+        return bundleWars;
+    }
+
+    public String getDeploymentNode() {
+        return deploymentNode;
+    }
+
+    public String getStagingPath() {
+        return stagingPath;
+    }
+
+    public String getServerStagingPath() {
+        return serverStagingPath;
+    }
+
+    public boolean isPreStageUpload() {
+        return preStageUpload;
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    public boolean isDeltaUpdate() {
+        return deltaUpdate;
+    }
+
+    public String getModuleTargets() {
+        return moduleTargets;
+    }
+
+    public boolean isModuleUpdate() {
+        return moduleUpdate;
+    }
+
+    public boolean isConfigurationUpdate() {
+        return configurationUpdate;
+    }
+
+    public boolean isBatchDeployment() {
+        return batchDeployment;
+    }
+
     public String getIpAddress() {
         return ipAddress;
     }
@@ -233,64 +368,699 @@ public class WebSphereDeployerPlugin extends Notifier {
     		throw new IllegalStateException("Build result cannot be null");
     	}
         if(shouldDeploy(buildResult)) {
-        	WebSphereDeploymentService service = new WebSphereDeploymentService();
-        	Artifact artifact = null;
-            try {            	
-                EnvVars env = build.getEnvironment(listener);
-                preInitializeService(listener,service, env);  
-            	service.connect();                	               
-                for(FilePath path:gatherArtifactPaths(build, listener)) {
-                    artifact = createArtifact(path,listener,service);   
-                    log(listener,"Artifact is being deployed to virtual host: "+artifact.getVirtualHost());
-                    stopArtifact(artifact,listener,service);
-                    if(getOperations().equals(OPERATION_REINSTALL)) {
-                    	uninstallArtifact(artifact,listener,service);
-                    	deployArtifact(artifact,listener,service);
-                    } else { //otherwise update application
-                    	if(!service.isArtifactInstalled(artifact)) {
-                    		deployArtifact(artifact, listener, service); //do initial deployment
-                    	} else {
-                    		updateArtifact(artifact,listener,service);
-                    	}
-                    }
-                    if(isFullSynchronization()) {
-                    	service.fullyResynchronizeNodes();
-                    }
-                    startArtifact(artifact,listener,service);
-
-                    if(rollback) {
-                    	saveArtifactToRollbackRepository(build, listener, artifact);
-                    }
-                }
-            } catch (Exception e) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                PrintStream p = null;
-				try {
-					p = new PrintStream(out,true,"UTF-8");
-				} catch (UnsupportedEncodingException e2) {
-					e2.printStackTrace();
-				}
-                e.printStackTrace(p);
-                if(verbose) {
-                	try {
-						logVerbose(listener,"Error deploying to IBM WebSphere Application Server: "+new String(out.toByteArray(),"UTF-8"));
-					} catch (UnsupportedEncodingException e1) {
-						e1.printStackTrace();
-					}
-                } else {
-                	log(listener,"Error deploying to IBM WebSphere Application Server: "+e.getMessage());
-                }
-                rollbackArtifact(service,build,listener,artifact);
-                build.setResult(Result.FAILURE);
-            } finally {
-                service.disconnect();
-            }
+        	try {
+        		boolean success;
+        		if(StringUtils.trimToNull(deploymentNode) != null) {
+        			success = performOnNode(build, listener);
+        		} else {
+        			success = performLocally(build, listener);
+        		}
+        		if(!success) {
+        			build.setResult(Result.FAILURE);
+        		}
+        	} catch(Exception e) {
+        		logError(listener, e);
+        		build.setResult(Result.FAILURE);
+        	}
         } else {
             listener.getLogger().println("Unable to deploy to IBM WebSphere Application Server, Build Result = " + buildResult);
         }
         return true;
     }
 
+    private boolean performLocally(AbstractBuild build, BuildListener listener) throws Exception {
+    	List<FilePath[]> units = ArtifactUnits.group(gatherArtifactPaths(build, listener), isBundleWars());
+    	FilePath workspace = build.getWorkspace();
+    	DeploymentContext context = new DeploymentContext(build.getEnvironment(listener),
+    			getCacheRoot().getAbsolutePath(),
+    			new File(build.getRootDir(),"websphere-deployer-staging").getAbsolutePath(),
+    			workspace != null ? workspace.getRemote()+File.separator+"Rollbacks" : null,
+    			getPluginVersion(),
+    			getBundleName(build));
+    	try {
+    		return deploy(context, units, listener);
+    	} finally {
+    		deleteStagingRoot(context, listener);
+    	}
+    }
+
+    /*
+     * Runs the whole workflow, including the WebSphere client, on an agent matching the
+     * deployment node label. Artifacts not already on that agent are copied there first.
+     * Caches and the rollback repository live below <agent root>/websphere-deployer.
+     */
+    private boolean performOnNode(AbstractBuild build, BuildListener listener) throws Exception {
+    	List<FilePath[]> units = ArtifactUnits.group(gatherArtifactPaths(build, listener), isBundleWars());
+    	Node node = findDeploymentNode();
+    	VirtualChannel channel = node.getChannel();
+    	FilePath root = node.getRootPath();
+    	if(channel == null || root == null) {
+    		throw new DeploymentServiceException("Deployment node '"+node.getDisplayName()+"' went offline");
+    	}
+    	log(listener,"Deploying from node '"+node.getDisplayName()+"'");
+    	FilePath base = root.child("websphere-deployer");
+    	FilePath stagingParent = base.child("staging");
+    	stagingParent.mkdirs();
+    	FilePath staging = stagingParent.createTempDir("build", "");
+    	try {
+    		List<String[]> remoteUnits = new ArrayList<String[]>();
+    		for(int i=0;i<units.size();i++) {
+    			FilePath[] unit = units.get(i);
+    			String[] remoteUnit = new String[unit.length];
+    			for(int j=0;j<unit.length;j++) {
+    				remoteUnit[j] = copyToNode(unit[j], channel, staging.child("artifacts").child(String.valueOf(i)), listener);
+    			}
+    			remoteUnits.add(remoteUnit);
+    		}
+    		DeploymentContext context = new DeploymentContext(build.getEnvironment(listener),
+    				base.child("cache").getRemote(),
+    				staging.child("work").getRemote(),
+    				base.child("rollbacks").child(build.getProject().getFullName().replace('/', '_')).getRemote(),
+    				getPluginVersion(),
+    				getBundleName(build));
+    		return channel.call(new RemoteDeployment(this, context, remoteUnits, listener));
+    	} finally {
+    		try {
+    			staging.deleteRecursive();
+    		} catch(IOException e) {
+    			logVerbose(listener,"Failed to delete staging directory "+staging.getRemote()+": "+e.getMessage());
+    		}
+    	}
+    }
+
+    private Node findDeploymentNode() {
+    	Label label = Jenkins.getInstance().getLabel(deploymentNode.trim());
+    	if(label != null) {
+    		for(Node node:label.getNodes()) {
+    			Computer computer = node.toComputer();
+    			if(computer != null && computer.isOnline() && node.getChannel() != null) {
+    				return node;
+    			}
+    		}
+    	}
+    	throw new DeploymentServiceException("No online node matches deployment node label '"+deploymentNode+"'");
+    }
+
+    /*
+     * Returns the path of the artifact on the deployment node, copying it there unless
+     * the workspace already lives on that node
+     */
+    private String copyToNode(FilePath path, VirtualChannel channel, FilePath directory, BuildListener listener) throws IOException, InterruptedException {
+    	if(path.getChannel() == channel) {
+    		return path.getRemote();
+    	}
+    	FilePath target = directory.child(path.getName());
+    	logVerbose(listener,"Copying '"+path.getName()+"' to "+target.getRemote());
+    	directory.mkdirs();
+    	path.copyTo(target);
+    	return target.getRemote();
+    }
+
+    /*
+     * The deployment workflow. It only uses the context, never the build, so it can run
+     * on the controller as well as on the deployment node.
+     */
+    boolean deploy(DeploymentContext context, List<FilePath[]> units, BuildListener listener) {
+    	if(isBatchDeployment()) {
+    		return performBatch(context, units, listener);
+    	}
+    	if(isParallelDeployment()) {
+    		return performParallel(context, units, listener);
+    	}
+    	return performSequential(context, units, listener);
+    }
+
+    /*
+     * Deploys the artifacts one after another. The local preparation of the next
+     * artifact (reading the archive, generating the EAR) runs in the background
+     * while the current one is being uploaded, distributed and started. It uses a
+     * service of its own, which never connects, so the two threads share no state.
+     */
+    private boolean performSequential(DeploymentContext context, List<FilePath[]> units, BuildListener listener) {
+    	WebSphereDeploymentService service = new WebSphereDeploymentService();
+    	WebSphereDeploymentService preparation = new WebSphereDeploymentService();
+    	ExecutorService preparer = Executors.newSingleThreadExecutor();
+    	AtomicBoolean aborted = new AtomicBoolean();
+    	Future<Artifact> next = null;
+    	Artifact artifact = null;
+        try {            	
+            preInitializeService(listener,service,context);  
+            configureService(listener,preparation,context);
+        	service.connect();                	               
+            next = prepareArtifact(preparer,context,units.get(0),listener,preparation,aborted);
+            for(int i=0;i<units.size();i++) {
+                artifact = awaitArtifact(next);
+                next = i + 1 < units.size() ? prepareArtifact(preparer,context,units.get(i+1),listener,preparation,aborted) : null;
+                processArtifact(context,artifact,listener,service);
+            }
+            return true;
+        } catch (Exception e) {
+            logError(listener, e);
+            cancelPreparation(preparer,next,aborted,context,listener);
+            rollbackArtifact(service,context,listener,artifact);
+            return false;
+        } finally {
+        	preparer.shutdownNow();
+        	logCacheStatistics(listener, preparation);
+        	logCacheStatistics(listener, service);
+            service.disconnect();
+            if(reuseConnections) {
+            	logVerbose(listener,"Connection pool: "+AdminClientPool.getInstance().getStatistics());
+            }
+        }
+    }
+
+    /*
+     * Runs the stop/install/start pipeline of every artifact on its own worker with
+     * its own connection. Build log lines are prefixed with the artifact name and
+     * all failures are reported together once every artifact is done.
+     */
+    private boolean performParallel(final DeploymentContext context, List<FilePath[]> units, BuildListener listener) {
+    	ExecutorService executor = null;
+    	try {
+    		int threads = Math.min(getMaxParallelDeploymentCount(), units.size());
+    		log(listener,"Deploying "+units.size()+" artifacts using "+threads+" parallel workers");
+    		executor = Executors.newFixedThreadPool(threads);
+    		Map<String,Future<Void>> deployments = new LinkedHashMap<String,Future<Void>>();
+    		for(final FilePath[] unit:units) {
+    			String name = ArtifactUnits.isBundle(unit, isBundleWars()) ? context.getBundleName()+".ear" : unit[0].getName();
+    			final BuildListener artifactListener = new StreamBuildListener(new PrintStream(new PrefixedOutputStream(listener.getLogger(),"["+name+"] "),true,"UTF-8"));
+    			deployments.put(name, executor.submit(new Callable<Void>() {
+    				public Void call() throws Exception {
+    					deployInIsolation(context, unit, artifactListener);
+    					return null;
+    				}
+    			}));
+    		}
+    		List<String> failures = new ArrayList<String>();
+    		for(Map.Entry<String,Future<Void>> deployment:deployments.entrySet()) {
+    			try {
+    				deployment.getValue().get();
+    			} catch(ExecutionException e) {
+    				failures.add(deployment.getKey()+": "+e.getCause().getMessage());
+    			}
+    		}
+    		if(!failures.isEmpty()) {
+    			log(listener,failures.size()+" of "+units.size()+" artifacts failed to deploy:");
+    			for(String failure:failures) {
+    				log(listener,"  "+failure);
+    			}
+    			return false;
+    		}
+    		return true;
+    	} catch(Exception e) {
+    		logError(listener, e);
+    		return false;
+    	} finally {
+    		if(executor != null) {
+    			executor.shutdownNow();
+    		}
+    		if(reuseConnections) {
+    			logVerbose(listener,"Connection pool: "+AdminClientPool.getInstance().getStatistics());
+    		}
+    	}
+    }
+
+    /*
+     * Installs or updates all artifacts first, synchronizes the nodes once and then
+     * starts all applications, waiting for their distribution in parallel. Each start
+     * runs on its own worker with its own connection. If an install fails, that
+     * artifact is rolled back and the ones installed before it are still started.
+     */
+    private boolean performBatch(final DeploymentContext context, List<FilePath[]> units, BuildListener listener) {
+    	WebSphereDeploymentService service = new WebSphereDeploymentService();
+    	WebSphereDeploymentService preparation = new WebSphereDeploymentService();
+    	ExecutorService preparer = Executors.newSingleThreadExecutor();
+    	ExecutorService starter = null;
+    	Map<Artifact,DeploymentRecord> installed = new LinkedHashMap<Artifact,DeploymentRecord>();
+    	boolean successful = true;
+    	try {
+    		preInitializeService(listener,service,context);
+    		configureService(listener,preparation,context);
+    		service.connect();
+    		AtomicBoolean aborted = new AtomicBoolean();
+    		Future<Artifact> next = null;
+    		Artifact artifact = null;
+    		try {
+    			next = prepareArtifact(preparer,context,units.get(0),listener,preparation,aborted);
+    			for(int i=0;i<units.size();i++) {
+    				artifact = awaitArtifact(next);
+    				next = i + 1 < units.size() ? prepareArtifact(preparer,context,units.get(i+1),listener,preparation,aborted) : null;
+    				DeploymentRecord record = createDeploymentRecord(artifact, service);
+    				if(installArtifact(context, artifact, record, listener, service)) {
+    					installed.put(artifact, record);
+    				}
+    				artifact = null;
+    			}
+    		} catch(Exception e) {
+    			logError(listener, e);
+    			cancelPreparation(preparer,next,aborted,context,listener);
+    			if(artifact != null) {
+    				rollbackArtifact(service,context,listener,artifact);
+    			}
+    			successful = false;
+    		}
+    		if(installed.isEmpty()) {
+    			return successful;
+    		}
+    		if(isFullSynchronization()) {
+    			log(listener,"Synchronizing nodes once for "+installed.size()+" application(s)...");
+    			service.fullyResynchronizeNodes();
+    		}
+    		int threads = Math.min(getMaxParallelDeploymentCount(), installed.size());
+    		log(listener,"Starting "+installed.size()+" application(s) using "+threads+" parallel workers");
+    		starter = Executors.newFixedThreadPool(threads);
+    		Map<String,Future<Void>> starts = new LinkedHashMap<String,Future<Void>>();
+    		for(final Map.Entry<Artifact,DeploymentRecord> entry:installed.entrySet()) {
+    			final BuildListener artifactListener = new StreamBuildListener(new PrintStream(new PrefixedOutputStream(listener.getLogger(),"["+entry.getKey().getAppName()+"] "),true,"UTF-8"));
+    			starts.put(entry.getKey().getAppName(), starter.submit(new Callable<Void>() {
+    				public Void call() throws Exception {
+    					activateInIsolation(context, entry.getKey(), entry.getValue(), artifactListener);
+    					return null;
+    				}
+    			}));
+    		}
+    		List<String> failures = new ArrayList<String>();
+    		for(Map.Entry<String,Future<Void>> start:starts.entrySet()) {
+    			try {
+    				start.getValue().get();
+    			} catch(ExecutionException e) {
+    				failures.add(start.getKey()+": "+e.getCause().getMessage());
+    			}
+    		}
+    		if(!failures.isEmpty()) {
+    			log(listener,failures.size()+" of "+installed.size()+" applications failed to start:");
+    			for(String failure:failures) {
+    				log(listener,"  "+failure);
+    			}
+    			return false;
+    		}
+    		return successful;
+    	} catch(Exception e) {
+    		logError(listener, e);
+    		return false;
+    	} finally {
+    		preparer.shutdownNow();
+    		if(starter != null) {
+    			starter.shutdownNow();
+    		}
+    		logCacheStatistics(listener, preparation);
+    		logCacheStatistics(listener, service);
+    		service.disconnect();
+    		if(reuseConnections) {
+    			logVerbose(listener,"Connection pool: "+AdminClientPool.getInstance().getStatistics());
+    		}
+    	}
+    }
+
+    private void deployInIsolation(DeploymentContext context, FilePath[] unit, BuildListener listener) throws Exception {
+    	WebSphereDeploymentService service = new WebSphereDeploymentService();
+    	Artifact artifact = null;
+    	try {
+    		preInitializeService(listener, service, context);
+    		service.connect();
+    		artifact = createArtifact(context,unit,listener,service);
+    		processArtifact(context,artifact,listener,service);
+    	} catch(Exception e) {
+    		logError(listener, e);
+    		rollbackArtifact(service,context,listener,artifact);
+    		throw e;
+    	} finally {
+    		logCacheStatistics(listener, service);
+    		service.disconnect();
+    	}
+    }
+
+    private void activateInIsolation(DeploymentContext context, Artifact artifact, DeploymentRecord record, BuildListener listener) throws Exception {
+    	WebSphereDeploymentService service = new WebSphereDeploymentService();
+    	try {
+    		preInitializeService(listener, service, context);
+    		service.connect();
+    		activateArtifact(context, artifact, record, listener, service);
+    	} catch(Exception e) {
+    		logError(listener, e);
+    		rollbackArtifact(service,context,listener,artifact);
+    		throw e;
+    	} finally {
+    		service.disconnect();
+    	}
+    }
+
+    /*
+     * Creates the artifact on the preparer. If the deployment fails meanwhile, the
+     * artifact is discarded instead of returned.
+     */
+    private Future<Artifact> prepareArtifact(ExecutorService preparer,final DeploymentContext context,final FilePath[] unit,final BuildListener listener,final WebSphereDeploymentService service,final AtomicBoolean aborted) {
+    	return preparer.submit(new Callable<Artifact>() {
+    		public Artifact call() throws Exception {
+    			Artifact artifact = createArtifact(context,unit,listener,service);
+    			if(aborted.get()) {
+    				discardArtifact(context,artifact,listener);
+    				return null;
+    			}
+    			return artifact;
+    		}
+    	});
+    }
+
+    /*
+     * Stops the preparation of the next artifact after a failure and waits for it,
+     * so nothing is still written to the staging root once it is deleted. A
+     * prepared artifact that will never be deployed is discarded.
+     */
+    private void cancelPreparation(ExecutorService preparer,Future<Artifact> pending,AtomicBoolean aborted,DeploymentContext context,BuildListener listener) {
+    	aborted.set(true);
+    	preparer.shutdownNow();
+    	try {
+    		if(!preparer.awaitTermination(PREPARATION_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+    			logVerbose(listener,"Preparation of the next artifact did not stop within "+PREPARATION_STOP_TIMEOUT_SECONDS+" seconds");
+    			return;
+    		}
+    	} catch(InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		return;
+    	}
+    	if(pending != null && pending.isDone()) {
+    		try {
+    			discardArtifact(context,pending.get(),listener); //completed before it saw the failure
+    		} catch(Exception e) {
+    			//the preparation failed itself, nothing to discard
+    		}
+    	}
+    }
+
+    /*
+     * Deletes the staging directory holding the archive of an artifact that will not
+     * be deployed
+     */
+    private void discardArtifact(DeploymentContext context,Artifact artifact,BuildListener listener) {
+    	if(artifact == null || artifact.getSourcePath() == null) {
+    		return;
+    	}
+    	File directory = artifact.getSourcePath().getParentFile();
+    	if(directory == null || !context.getStagingRoot().equals(directory.getParentFile())) {
+    		return; //not a staged copy
+    	}
+    	try {
+    		Util.deleteRecursive(directory);
+    	} catch(IOException e) {
+    		logVerbose(listener,"Failed to delete staging directory "+directory.getAbsolutePath()+": "+e.getMessage());
+    	}
+    }
+
+    private Artifact awaitArtifact(Future<Artifact> artifact) throws Exception {
+    	try {
+    		return artifact.get();
+    	} catch(ExecutionException e) {
+    		if(e.getCause() instanceof Exception) {
+    			throw (Exception)e.getCause();
+    		}
+    		throw e;
+    	}
+    }
+
+    private void processArtifact(DeploymentContext context,Artifact artifact,BuildListener listener,WebSphereDeploymentService service) throws Exception {
+    	DeploymentRecord record = createDeploymentRecord(artifact, service);
+    	if(!installArtifact(context, artifact, record, listener, service)) {
+    		return;
+    	}
+    	if(isFullSynchronization()) {
+    		service.fullyResynchronizeNodes();
+    	}
+    	activateArtifact(context, artifact, record, listener, service);
+    }
+
+    /*
+     * Stops the running application and installs or updates the artifact. Returns
+     * false if the artifact is skipped as unchanged. record is the record of the
+     * new version, see createDeploymentRecord.
+     */
+    private boolean installArtifact(DeploymentContext context,Artifact artifact,DeploymentRecord record,BuildListener listener,WebSphereDeploymentService service) throws Exception {
+    	boolean preStaged = false;
+    	try {
+    		DeploymentRecord deployed = null;
+    		if(record != null) {
+    			deployed = loadDeploymentRecord(context, artifact, listener, service);
+    			if(skipUnchanged && deployed != null && deployed.getFingerprint().equals(record.getFingerprint())) {
+    				log(listener,"'"+artifact.getAppName()+"' is unchanged since its last deployment, skipping it");
+    				return false;
+    			}
+    			deleteDeploymentRecord(context, artifact, listener); //a failed deployment must not look current
+    		}
+    		boolean reinstall = getOperations().equals(OPERATION_REINSTALL);
+    		boolean installed = !reinstall && service.isArtifactInstalled(artifact);
+    		//decide how to update first: the archive is only staged if all of it is sent
+    		Set<String> changedConfiguration = installed ? getChangedConfiguration(deployed, record) : null;
+    		ArchiveManifest.Changes changedContent = installed && changedConfiguration == null ? getChangedContent(artifact, deployed, record, listener) : null;
+    		if(changedConfiguration == null && changedContent == null) {
+    			preStaged = stageForInstall(context, artifact, listener, service); //while the old version is still serving
+    		}
+    		log(listener,"Artifact is being deployed to virtual host: "+artifact.getVirtualHost());
+    		stopArtifact(artifact,listener,service);
+    		if(reinstall) {
+    			uninstallArtifact(artifact,listener,service);
+    			deployArtifact(artifact,listener,service);
+    		} else if(!installed) {
+    			deployArtifact(artifact, listener, service); //do initial deployment
+    		} else if(changedConfiguration != null && updateConfiguration(artifact, changedConfiguration, listener, service)) {
+    			//only the configuration changed
+    		} else if(changedContent != null) {
+    			updateChangedContent(artifact, record, changedContent, listener, service);
+    		} else {
+    			if(changedConfiguration != null) { //the configuration can't be changed in place after all
+    				preStaged = stageForInstall(context, artifact, listener, service);
+    			}
+    			updateArtifact(artifact,listener,service);
+    		}
+    		return true;
+    	} finally {
+    		if(preStaged) {
+    			service.removePreStagedArtifact(artifact);
+    		} else {
+    			deleteServerCopy(context, artifact, listener);
+    		}
+    		artifact.setServerPath(null); //a rollback must not install from the deleted copy
+    	}
+    }
+
+    /*
+     * Puts the archive where the deployment manager installs it from: into the
+     * server-visible staging path if one is configured, else, with pre-staging
+     * enabled, uploaded into the deployment manager's staging location. Returns
+     * true if it was uploaded.
+     */
+    private boolean stageForInstall(DeploymentContext context,Artifact artifact,BuildListener listener,WebSphereDeploymentService service) throws IOException {
+    	if(StringUtils.trimToNull(stagingPath) != null) {
+    		stageForServer(context, artifact, listener);
+    		return false;
+    	}
+    	if(preStageUpload) {
+    		log(listener,"Pre-staging '"+artifact.getAppName()+"' on the deployment manager...");
+    		service.preStageArtifact(artifact);
+    		return true;
+    	}
+    	return false;
+    }
+
+    /*
+     * Starts the installed artifact, keeps it for rollbacks and records it
+     */
+    private void activateArtifact(DeploymentContext context,Artifact artifact,DeploymentRecord record,BuildListener listener,WebSphereDeploymentService service) throws Exception {
+    	startArtifact(artifact,listener,service);
+    	if(rollback) {
+    		saveArtifactToRollbackRepository(context, listener, artifact);
+    	}
+    	if(record != null) {
+    		recordDeployment(context, artifact, record, listener, service);
+    	}
+    }
+
+    /*
+     * The record of the artifact about to be deployed, or null unless skipping or
+     * incremental updates are enabled. Made before the archive moves to the
+     * rollback repository.
+     */
+    private DeploymentRecord createDeploymentRecord(Artifact artifact,WebSphereDeploymentService service) throws IOException {
+    	if(!skipUnchanged && !deltaUpdate && !moduleUpdate && !configurationUpdate) {
+    		return null;
+    	}
+    	ArchiveManifest manifest = null;
+    	if(deltaUpdate || moduleUpdate) {
+    		if(artifact.getMetadata() == null) {
+    			artifact.setMetadata(inspectArchive(artifact.getSourcePath()));
+    		}
+    		manifest = ArchiveManifest.read(artifact.getSourcePath(), artifact.getMetadata());
+    	}
+    	return new DeploymentRecord(service.getDeploymentFingerprint(artifact),
+    			service.getContentDigest(artifact),
+    			service.getSettingsFingerprint(artifact),
+    			service.getInstallFingerprint(artifact),
+    			service.getConfiguration(artifact),
+    			manifest);
+    }
+
+    /*
+     * The record of the last deployment counts only if the marker on the installed
+     * application carries the same fingerprint. The marker catches deployments made
+     * by anyone else, the record catches a marker that survived a failed deployment.
+     */
+    private DeploymentRecord loadDeploymentRecord(DeploymentContext context,Artifact artifact,BuildListener listener,WebSphereDeploymentService service) {
+    	DeploymentRecord record = DeploymentRecord.load(getDeploymentRecord(context, artifact));
+    	if(record == null) {
+    		logVerbose(listener,"No deployment record of '"+artifact.getAppName()+"' found");
+    		return null;
+    	}
+    	if(!service.isArtifactInstalled(artifact)) {
+    		logVerbose(listener,"'"+artifact.getAppName()+"' is not installed");
+    		return null;
+    	}
+    	String deployed = service.getDeployedFingerprint(artifact);
+    	if(!record.getFingerprint().equals(deployed)) {
+    		logVerbose(listener,"Fingerprint of installed '"+artifact.getAppName()+"' is "+deployed+", recorded "+record.getFingerprint());
+    		return null;
+    	}
+    	return record;
+    }
+
+    private void recordDeployment(DeploymentContext context,Artifact artifact,DeploymentRecord record,BuildListener listener,WebSphereDeploymentService service) throws IOException {
+    	service.setDeployedFingerprint(artifact, record.getFingerprint());
+    	File file = getDeploymentRecord(context, artifact);
+    	createIfNotExists(listener, file.getParentFile());
+    	record.save(file);
+    	logVerbose(listener,"Recorded deployment of '"+artifact.getAppName()+"' with fingerprint "+record.getFingerprint());
+    }
+
+    private void deleteDeploymentRecord(DeploymentContext context,Artifact artifact,BuildListener listener) {
+    	File record = getDeploymentRecord(context, artifact);
+    	if(record.exists() && !record.delete()) {
+    		throw new DeploymentServiceException("Failed to delete deployment record, is write access allowed?: "+record.getAbsolutePath());
+    	}
+    }
+
+    /*
+     * One record per application and cell, the cell being identified by the
+     * deployment manager's address
+     */
+    private File getDeploymentRecord(DeploymentContext context,Artifact artifact) {
+    	EnvVars env = context.getEnv();
+    	String key = DigestUtilities.digest(env.expand(getIpAddress()), env.expand(getPort()), artifact.getAppName());
+    	return new File(new File(context.getCacheRoot(),"deployments"), key+".record");
+    }
+
+    /*
+     * The configuration settings that changed since the recorded deployment, if the
+     * archive and all settings that need a new installation are the same. Returns
+     * null if the changes can't be applied by updating the configuration only.
+     */
+    private Set<String> getChangedConfiguration(DeploymentRecord deployed,DeploymentRecord current) {
+    	if(!configurationUpdate || deployed == null || deployed.getContentDigest() == null
+    			|| !deployed.getContentDigest().equals(current.getContentDigest())
+    			|| !deployed.getInstallFingerprint().equals(current.getInstallFingerprint())) {
+    		return null;
+    	}
+    	Set<String> changed = new TreeSet<String>();
+    	for(Map.Entry<String,String> setting:current.getConfiguration().entrySet()) {
+    		if(!setting.getValue().equals(deployed.getConfiguration().get(setting.getKey()))) {
+    			changed.add(setting.getKey());
+    		}
+    	}
+    	return changed.isEmpty() ? null : changed;
+    }
+
+    /*
+     * Applies the changed configuration settings to the installed application.
+     * Returns false, having done nothing, if that is not possible.
+     */
+    private boolean updateConfiguration(Artifact artifact,Set<String> changed,BuildListener listener,WebSphereDeploymentService service) {
+    	listener.getLogger().println("Updating configuration of '" + artifact.getAppName() + "' on IBM WebSphere Application Server: "+StringUtils.join(changed, ", "));
+    	if(!service.updateConfiguration(artifact, changed)) {
+    		log(listener,"Configuration of '"+artifact.getAppName()+"' can't be changed in place, redeploying it");
+    		return false;
+    	}
+    	return true;
+    }
+
+    /*
+     * The content changes since the recorded deployment, if they can be sent on their
+     * own: as changed files if delta updates are enabled, else as changed modules if
+     * module updates are. Returns null if a full update is needed.
+     */
+    private ArchiveManifest.Changes getChangedContent(Artifact artifact,DeploymentRecord deployed,DeploymentRecord current,BuildListener listener) {
+    	if(!deltaUpdate && !moduleUpdate) {
+    		return null;
+    	}
+    	String reason;
+    	ArchiveManifest.Changes changes = null;
+    	if(deployed == null || deployed.getManifest() == null) {
+    		reason = "the deployed version is not known";
+    	} else if(!deployed.getSettingsFingerprint().equals(current.getSettingsFingerprint())) {
+    		reason = "the deployment settings changed";
+    	} else {
+    		changes = current.getManifest().compareTo(deployed.getManifest());
+    		reason = deltaUpdate ? changes.getFullUpdateReason() : changes.getModuleUpdateReason();
+    		if(reason != null && deltaUpdate && moduleUpdate && changes.getModuleUpdateReason() == null) {
+    			reason = null;
+    		}
+    	}
+    	if(reason != null) {
+    		log(listener,"Updating all of '"+artifact.getAppName()+"': "+reason);
+    		return null;
+    	}
+    	return changes;
+    }
+
+    /*
+     * Sends only the changes found by getChangedContent
+     */
+    private void updateChangedContent(Artifact artifact,DeploymentRecord current,ArchiveManifest.Changes changes,BuildListener listener,WebSphereDeploymentService service) {
+    	if(changes.isEmpty()) {
+    		log(listener,"Content of '"+artifact.getAppName()+"' is unchanged, nothing to update");
+    	} else if(deltaUpdate && changes.getFullUpdateReason() == null) {
+    		listener.getLogger().println("Updating changed files of '" + artifact.getAppName() + "' on IBM WebSphere Application Server");
+    		service.updateArtifactPartially(artifact, current.getManifest(), changes);
+    	} else {
+    		listener.getLogger().println("Updating changed modules of '" + artifact.getAppName() + "' on IBM WebSphere Application Server: "+StringUtils.join(changes.getChangedModules(), ", "));
+    		service.updateModules(artifact, changes.getChangedModules());
+    	}
+    }
+
+    private void logCacheStatistics(BuildListener listener, WebSphereDeploymentService service) {
+    	if(service.getEarCacheHits() + service.getEarCacheMisses() > 0) {
+    		log(listener,"Generated EAR cache: "+service.getEarCacheHits()+" hit(s), "+service.getEarCacheMisses()+" miss(es)");
+    	}
+    	if(service.getOptionsCacheHits() + service.getOptionsCacheMisses() > 0) {
+    		log(listener,"Deployment options cache: "+service.getOptionsCacheHits()+" hit(s), "+service.getOptionsCacheMisses()+" miss(es)");
+    	}
+    }
+
+    private int getMaxParallelDeploymentCount() {
+    	try {
+    		return Math.max(1, Integer.parseInt(getMaxParallelDeployments().trim()));
+    	} catch(Exception e) {
+    		return DEFAULT_MAX_PARALLEL_DEPLOYMENTS;
+    	}
+    }
+
+    private void logError(BuildListener listener, Exception e) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream p = null;
+		try {
+			p = new PrintStream(out,true,"UTF-8");
+		} catch (UnsupportedEncodingException e2) {
+			e2.printStackTrace();
+		}
+        e.printStackTrace(p);
+        if(verbose) {
+        	try {
+				logVerbose(listener,"Error deploying to IBM WebSphere Application Server: "+new String(out.toByteArray(),"UTF-8"));
+			} catch (UnsupportedEncodingException e1) {
+				e1.printStackTrace();
+			}
+        } else {
+        	log(listener,"Error deploying to IBM WebSphere Application Server: "+e.getMessage());
+        }
+    }
+
     private boolean shouldDeploy(Result result) {
         if (result.equals(Result.SUCCESS)) return true;
         if (unstableDeploy && result.equals(Result.UNSTABLE)) return true;
@@ -307,26 +1077,18 @@ public class WebSphereDeployerPlugin extends Notifier {
     	}
     }
     
-    private void rollbackArtifact(WebSphereDeploymentService service,AbstractBuild build,BuildListener listener,Artifact artifact) {
-    	if(build == null) {
-    		log(listener,"Cannot rollback to previous verions: build is null");
-    	}
+    private void rollbackArtifact(WebSphereDeploymentService service,DeploymentContext context,BuildListener listener,Artifact artifact) {
     	if(artifact == null) {
     		log(listener,"Cannot rollback to previous version: artifact is null");
     		return;
     	}
-    	FilePath workspace = build.getWorkspace();
-    	if(workspace == null) {
+    	File rollbackDir = context.getRollbackDirectory();
+    	if(rollbackDir == null) {
     		log(listener,"Cannot rollback to previous version: workspace is null");
     		return;
     	}
-    	String remote = workspace.getRemote();
-    	if(remote == null) {
-    		log(listener,"Cannot rollback to previous version: remote path is null");
-    		return;
-    	}
     	log(listener,"Performing rollback of '"+artifact.getAppName()+"'");    	
-    	File installablePath = new File(remote+File.separator+"Rollbacks"+File.separator+artifact.getAppName()+"."+artifact.getTypeName());    	
+    	File installablePath = new File(rollbackDir,artifact.getAppName()+"."+artifact.getTypeName());    	
     	if(installablePath.exists()) {
     		artifact.setSourcePath(installablePath);
     		try {
@@ -342,19 +1104,13 @@ public class WebSphereDeployerPlugin extends Notifier {
     	}
     }
     
-    private void saveArtifactToRollbackRepository(AbstractBuild build,BuildListener listener,Artifact artifact) {
+    private void saveArtifactToRollbackRepository(DeploymentContext context,BuildListener listener,Artifact artifact) {
     	listener.getLogger().println("Performing save operations on '" + artifact.getAppName() + "' for future rollbacks");
-    	FilePath workspace = build.getWorkspace();
-    	if(workspace == null) {
+    	File rollbackDir = context.getRollbackDirectory();
+    	if(rollbackDir == null) {
     		log(listener, "Failed to save rollback to repository: Build workspace is null");
     		throw new IllegalStateException("Failed to save rollback to repository: Build workspace is null");
     	}
-    	String remote = workspace.getRemote();
-    	if(remote == null) {
-    		log(listener,"Failed to save rollback to repository: Build workspace remote path is null");
-    		throw new IllegalStateException("Failed to save rollback to repository: Build workspace remote path is null");
-    	}
-    	File rollbackDir = new File(remote+File.separator+"Rollbacks");
     	createIfNotExists(listener, rollbackDir);
     	logVerbose(listener, "Rollback Path: "+rollbackDir.getAbsolutePath());
     	File destination = new File(rollbackDir,artifact.getAppName()+"."+artifact.getTypeName());
@@ -374,7 +1130,8 @@ public class WebSphereDeployerPlugin extends Notifier {
     }
     
     private void createIfNotExists(BuildListener listener,File directory) {
-    	if(directory.exists() || directory.mkdir()) {
+    	directory.mkdirs(); //false if another worker created it first
+    	if(directory.isDirectory()) {
     		return;
     	}
     	throw new DeploymentServiceException("Failed to create directory, is write access allowed?: "+directory.getAbsolutePath());
@@ -419,7 +1176,81 @@ public class WebSphereDeployerPlugin extends Notifier {
         }
     }      
 
-    private Artifact createArtifact(FilePath path,BuildListener listener,WebSphereDeploymentService service) {
+    /*
+     * With 'Bundle WARs' enabled all matched WARs form one unit that is deployed as a
+     * single EAR. Every other artifact is a unit of its own.
+     */
+    private Artifact createArtifact(DeploymentContext context,FilePath[] unit,BuildListener listener,WebSphereDeploymentService service) throws IOException, InterruptedException {
+    	Artifact artifact;
+    	if(ArtifactUnits.isBundle(unit, isBundleWars())) {
+    		artifact = createBundledArtifact(context,unit,listener,service);
+    	} else {
+    		artifact = createArtifact(context,unit[0],listener,service);
+    	}
+    	return artifact;
+    }
+
+    /*
+     * Copies the archive to the staging path the deployment manager can read and
+     * verifies the copy by digest, so it is installed from there instead of uploaded
+     */
+    private void stageForServer(DeploymentContext context,Artifact artifact,BuildListener listener) throws IOException {
+    	long start = System.currentTimeMillis();
+    	File source = artifact.getSourcePath();
+    	if(artifact.getDigest() == null) {
+    		artifact.setDigest(DigestUtilities.digest(source));
+    	}
+    	String digest = artifact.getDigest();
+    	File directory = new File(context.getEnv().expand(stagingPath.trim()));
+    	createIfNotExists(listener, directory);
+    	String extension = source.getName().substring(source.getName().lastIndexOf('.'));
+    	File copy = File.createTempFile(artifact.getAppName()+"-", extension, directory);
+    	Util.copyFile(source, copy);
+    	if(!digest.equals(DigestUtilities.digest(copy))) {
+    		if(!copy.delete()) {
+    			logVerbose(listener,"Failed to delete "+copy.getAbsolutePath());
+    		}
+    		throw new DeploymentServiceException("Copy of '"+source.getName()+"' in staging path "+directory.getAbsolutePath()+" does not match the original");
+    	}
+    	artifact.setServerPath(getServerStagingPath(context, copy.getName()));
+    	log(listener,"Staged '"+source.getName()+"' for the server at "+artifact.getServerPath()+" in "+(System.currentTimeMillis() - start)+" ms");
+    }
+
+    /*
+     * The staging path as the deployment manager sees it, which is the Jenkins side
+     * path unless a separate server path is configured
+     */
+    private String getServerStagingPath(DeploymentContext context,String fileName) {
+    	String base = StringUtils.trimToNull(serverStagingPath);
+    	if(base == null) {
+    		base = stagingPath.trim();
+    	}
+    	base = context.getEnv().expand(base);
+    	if(base.endsWith("/") || base.endsWith("\\")) {
+    		return base + fileName;
+    	}
+    	return base + "/" + fileName;
+    }
+
+    private void deleteServerCopy(DeploymentContext context,Artifact artifact,BuildListener listener) {
+    	String serverPath = artifact.getServerPath();
+    	if(serverPath == null || StringUtils.trimToNull(stagingPath) == null) {
+    		return;
+    	}
+    	String fileName = serverPath.substring(Math.max(serverPath.lastIndexOf('/'), serverPath.lastIndexOf('\\')) + 1);
+    	File copy = new File(context.getEnv().expand(stagingPath.trim()), fileName);
+    	if(copy.exists() && !copy.delete()) {
+    		logVerbose(listener,"Failed to delete staged copy "+copy.getAbsolutePath());
+    	}
+    }
+
+    /*
+     * Descriptors are inspected, digests computed and WARs wrapped on the machine that
+     * holds the workspace. Only the metadata and the final EAR come to the controller.
+     * The application name and deployment options of an EAR are still read there by
+     * the IBM deployment API, unless cached, from the copy that is uploaded anyway.
+     */
+    private Artifact createArtifact(DeploymentContext deploymentContext,FilePath path,BuildListener listener,WebSphereDeploymentService service) throws IOException, InterruptedException {
         Artifact artifact = new Artifact();
         if(path.getRemote().endsWith(".ear")) {
             artifact.setType(Artifact.TYPE_EAR);
@@ -429,6 +1260,28 @@ public class WebSphereDeployerPlugin extends Notifier {
         if(StringUtils.trimToNull(context) != null) {
         	artifact.setContext(context);
         }                
+        applyArtifactSettings(artifact);
+        ArchiveCallables.Inspection inspection = path.act(new ArchiveCallables.Inspect());
+        File stagingDirectory = path.isRemote() ? createStagingDirectory(deploymentContext) : null;
+        if(artifact.getType() == Artifact.TYPE_WAR) {
+        	artifact.setSourcePath(getLocalFile(path, stagingDirectory)); //the WAR itself stays where it is
+        } else {
+        	artifact.setSourcePath(stageArchive(path, stagingDirectory, listener));
+        }
+        artifact.setDigest(inspection.getDigest());
+        artifact.setMetadata(inspection.getMetadata());
+        if(StringUtils.trimToNull(applicationName) != null) {
+        	artifact.setAppName(applicationName);
+        } else {
+        	artifact.setAppName(getAppName(artifact,service));
+        }
+        if(artifact.getType() == Artifact.TYPE_WAR) {
+            generateEAR(artifact, path, stagingDirectory, listener, service);
+        }
+        return artifact;
+    }
+
+    private void applyArtifactSettings(Artifact artifact) {
         if(StringUtils.trimToNull(virtualHost) == null) {
         	artifact.setVirtualHost("default_host");
         } else {
@@ -437,23 +1290,59 @@ public class WebSphereDeployerPlugin extends Notifier {
         artifact.setClassLoaderOrder(classLoaderOrder);
         artifact.setClassLoaderPolicy(classLoaderPolicy);
         artifact.setTargets(targets);
+        artifact.setModuleTargets(moduleTargets);
         artifact.setInstallPath(installPath);
-        artifact.setJspReloading(reloading);
+        artifact.setReloading(reloading);
+        artifact.setJspReloading(jspReloading);
         artifact.setDistribute(distribute);
         if(StringUtils.trimToNull(edition) != null) {
         	artifact.setEdition(edition);	
         }
         artifact.setPrecompile(isPrecompile());
-        artifact.setSourcePath(new File(path.getRemote()));
-        if(StringUtils.trimToNull(applicationName) != null) {
-        	artifact.setAppName(applicationName);
-        } else {
-        	artifact.setAppName(getAppName(artifact,service));
-        }
-        if(artifact.getType() == Artifact.TYPE_WAR) {
-            generateEAR(artifact, listener, service);
-        }
-        return artifact;
+    }
+
+    /*
+     * Wraps all WARs of the unit into one EAR with a web module per WAR. The job's
+     * context root is not applied since every module keeps its own.
+     */
+    private Artifact createBundledArtifact(DeploymentContext deploymentContext,FilePath[] wars,BuildListener listener,WebSphereDeploymentService service) throws IOException, InterruptedException {
+    	File stagingDirectory = wars[0].isRemote() ? createStagingDirectory(deploymentContext) : null;
+    	List<Artifact> modules = new ArrayList<Artifact>();
+    	Map<Artifact,FilePath> sources = new HashMap<Artifact,FilePath>();
+    	for(FilePath war:wars) {
+    		ArchiveCallables.Inspection inspection = war.act(new ArchiveCallables.Inspect());
+    		Artifact module = new Artifact();
+    		module.setType(Artifact.TYPE_WAR);
+    		module.setSourcePath(getLocalFile(war, stagingDirectory));
+    		module.setDigest(inspection.getDigest());
+    		module.setMetadata(inspection.getMetadata());
+    		modules.add(module);
+    		sources.put(module, war);
+    	}
+    	if(StringUtils.trimToNull(context) != null) {
+    		log(listener,"Context root '"+context+"' is ignored: bundled WARs keep their own context roots");
+    	}
+    	Artifact artifact = new Artifact();
+    	artifact.setType(Artifact.TYPE_EAR);
+    	applyArtifactSettings(artifact);
+    	artifact.setAppName(deploymentContext.getBundleName());
+    	listener.getLogger().println("Generating EAR For Artifacts: "+wars.length+" WARs bundled into "+artifact.getAppName());
+    	FilePath target = wars[0].getParent().child(artifact.getAppName()+".ear");
+    	File bundle = getLocalFile(target, stagingDirectory);
+    	artifact.setContentDigest(service.generateEAR(modules, artifact.getAppName(), bundle, getEarLevel(), createEarAssembler(sources, target)));
+    	artifact.setSourcePath(bundle);
+    	artifact.setMetadata(inspectArchive(bundle));
+    	return artifact;
+    }
+
+    /*
+     * A bundle is named after the configured application name or else after the job
+     */
+    private String getBundleName(AbstractBuild build) {
+    	if(StringUtils.trimToNull(applicationName) != null) {
+    		return applicationName.trim();
+    	}
+    	return build.getProject().getName();
     }
 
     private FilePath[] gatherArtifactPaths(AbstractBuild build,BuildListener listener) throws Exception {
@@ -492,10 +1381,26 @@ public class WebSphereDeployerPlugin extends Notifier {
         return paths;
     }
 
-    private void preInitializeService(BuildListener listener,WebSphereDeploymentService service,EnvVars env) throws Exception {
+    private void preInitializeService(BuildListener listener,WebSphereDeploymentService service,DeploymentContext context) throws Exception {
         listener.getLogger().println("Connecting to IBM WebSphere Application Server...");
+        configureService(listener,service,context);
+    }
+
+    /*
+     * Applies the job's settings to the service without connecting it
+     */
+    private void configureService(BuildListener listener,WebSphereDeploymentService service,DeploymentContext context) {
+        EnvVars env = context.getEnv();
         service.setVerbose(isVerbose());
         service.setBuildListener(listener);;
+        service.setConnectionPooling(isReuseConnections());
+        try {
+        	service.setDeploymentTimeout(Integer.parseInt(getDeploymentTimeout()));
+        } catch(NumberFormatException e) {
+        	//keep the service's default timeout
+        }
+        service.setEarCache(FileCache.forDirectory(new File(context.getCacheRoot(),"ear-cache"),".ear",EAR_CACHE_MAX_BYTES));
+        service.setOptionsCache(FileCache.forDirectory(new File(context.getCacheRoot(),"options-cache"),".options",OPTIONS_CACHE_MAX_BYTES), context.getPluginVersion());
         service.setConnectorType(getConnectorType());
         service.setHost(env.expand(getIpAddress()));
         service.setPort(env.expand(getPort()));
@@ -510,20 +1415,115 @@ public class WebSphereDeployerPlugin extends Notifier {
         }
     }
 
+    /*
+     * Caches shared by all jobs live below JENKINS_HOME/websphere-deployer
+     */
+    private File getCacheRoot() {
+    	return new File(Jenkins.getInstance().getRootDir(),"websphere-deployer");
+    }
+
+    private String getPluginVersion() {
+    	PluginWrapper plugin = Jenkins.getInstance().getPluginManager().whichPlugin(WebSphereDeployerPlugin.class);
+    	return plugin != null ? plugin.getVersion() : "development";
+    }
+
     private String getAppName(Artifact artifact,WebSphereDeploymentService service) {
         if(artifact.getType() == Artifact.TYPE_EAR) {
-            return service.getAppName(artifact.getSourcePath().getAbsolutePath());
+            return service.readArchive(artifact);
         } else {
             String filename = artifact.getSourcePath().getName();
             return filename.substring(0,filename.lastIndexOf("."));
         }
     }
 
-    private void generateEAR(Artifact artifact,BuildListener listener,WebSphereDeploymentService service) {
+    private void generateEAR(Artifact artifact,FilePath war,File stagingDirectory,BuildListener listener,WebSphereDeploymentService service) {
         listener.getLogger().println("Generating EAR For Artifact: "+artifact.getAppName());
-        File modified = new File(artifact.getSourcePath().getParent(),artifact.getAppName()+".ear");
-        service.generateEAR(artifact, modified, getEarLevel());
+        FilePath target = war.getParent().child(artifact.getAppName()+".ear");
+        File modified = getLocalFile(target, stagingDirectory);
+        service.generateEAR(artifact, modified, getEarLevel(), createEarAssembler(Collections.singletonMap(artifact, war), target));
         artifact.setSourcePath(modified);
+        artifact.setMetadata(inspectArchive(modified));
+    }
+
+    /*
+     * Builds the EAR next to the WARs on the machine holding them and, if that is
+     * not the controller, copies it into the destination on the controller.
+     */
+    private EarAssembler createEarAssembler(final Map<Artifact,FilePath> sources,final FilePath target) {
+    	return new EarAssembler() {
+    		public void assemble(String applicationXml, List<Artifact> modules, File destination) throws IOException {
+    			List<String> wars = new ArrayList<String>();
+    			for(Artifact module:modules) {
+    				wars.add(sources.get(module).getRemote());
+    			}
+    			try {
+    				target.act(new ArchiveCallables.WrapWars(applicationXml, wars));
+    				if(target.isRemote()) {
+    					target.copyTo(new FilePath(destination));
+    					target.delete();
+    				}
+    			} catch(InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    				throw new InterruptedIOException("Interrupted while generating "+target.getRemote());
+    			}
+    		}
+    	};
+    }
+
+    /*
+     * The controller-side file of a workspace path: the file itself if the workspace is
+     * on the controller, otherwise a file of the same name in the staging directory
+     */
+    private File getLocalFile(FilePath path,File stagingDirectory) {
+    	if(!path.isRemote()) {
+    		return new File(path.getRemote());
+    	}
+    	return new File(stagingDirectory, path.getName());
+    }
+
+    private File stageArchive(FilePath path,File stagingDirectory,BuildListener listener) throws IOException, InterruptedException {
+    	File local = getLocalFile(path, stagingDirectory);
+    	if(path.isRemote()) {
+    		logVerbose(listener,"Copying '"+path.getName()+"' from the agent to "+local.getAbsolutePath());
+    		path.copyTo(new FilePath(local));
+    	}
+    	return local;
+    }
+
+    /*
+     * Archives copied from agents are staged below the context's staging root, which
+     * is removed once the deployment is done
+     */
+    private File createStagingDirectory(DeploymentContext context) throws IOException {
+    	File root = context.getStagingRoot();
+    	root.mkdirs();
+    	if(!root.isDirectory()) {
+    		throw new IOException("Failed to create staging directory "+root.getAbsolutePath());
+    	}
+    	File directory = File.createTempFile("artifact", "", root);
+    	if(!directory.delete() || !directory.mkdir()) {
+    		throw new IOException("Failed to create staging directory "+directory.getAbsolutePath());
+    	}
+    	return directory;
+    }
+
+    private void deleteStagingRoot(DeploymentContext context,BuildListener listener) {
+    	File root = context.getStagingRoot();
+    	if(root.exists()) {
+    		try {
+    			Util.deleteRecursive(root);
+    		} catch(IOException e) {
+    			logVerbose(listener,"Failed to delete staging directory "+root.getAbsolutePath()+": "+e.getMessage());
+    		}
+    	}
+    }
+
+    private ArchiveMetadata inspectArchive(File archive) {
+        try {
+            return ArchiveInspector.inspect(archive);
+        } catch (IOException e) {
+            throw new DeploymentServiceException("Failed to read archive '"+archive.getName()+"': "+e.getMessage(),e);
+        }
     }
 
     @Override
@@ -2,9 +2,13 @@ package org.jenkinsci.plugins.websphere_deployer;
 
 import hudson.util.Scrambler;
 
+import java.io.Serializable;
+
 import org.kohsuke.stapler.DataBoundConstructor;
 
-public class WebSphereSecurity {
+public class WebSphereSecurity implements Serializable {
+
+	private static final long serialVersionUID = 1L;
 	
 	private String username;
 	private String password;
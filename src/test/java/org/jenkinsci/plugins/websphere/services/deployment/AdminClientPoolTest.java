@@ -0,0 +1,266 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.ibm.websphere.management.AdminClient;
+
+public class AdminClientPoolTest {
+
+    @Test
+    public void reusesReleasedConnection() throws Exception {
+        TestPool pool = new TestPool(4, 60000, 1000);
+        AdminClientPool.Key key = key("dmgr", "admin");
+
+        AdminClientConnection first = pool.lease(key);
+        pool.release(first);
+        AdminClientConnection second = pool.lease(key);
+
+        assertSame(first, second);
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void doesNotShareConnectionsBetweenCredentials() throws Exception {
+        TestPool pool = new TestPool(4, 60000, 1000);
+
+        AdminClientConnection first = pool.lease(key("dmgr", "admin"));
+        pool.release(first);
+        AdminClientConnection second = pool.lease(key("dmgr", "deployer"));
+
+        assertNotSame(first, second);
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void replacesStaleConnection() throws Exception {
+        TestPool pool = new TestPool(4, 60000, 1000);
+        AdminClientPool.Key key = key("dmgr", "admin");
+
+        TestConnection first = (TestConnection) pool.lease(key);
+        pool.release(first);
+        first.alive = false;
+        AdminClientConnection second = pool.lease(key);
+
+        assertNotSame(first, second);
+        assertTrue(first.closed.get());
+        assertEquals(1, pool.getFailedProbes());
+    }
+
+    @Test
+    public void evictsIdleConnections() throws Exception {
+        TestPool pool = new TestPool(4, 0, 1000);
+        TestConnection connection = (TestConnection) pool.lease(key("dmgr", "admin"));
+        pool.release(connection);
+        Thread.sleep(5);
+
+        assertEquals(1, pool.evictIdle());
+        assertTrue(connection.closed.get());
+    }
+
+    @Test
+    public void timesOutWhenHostIsAtLimit() throws Exception {
+        TestPool pool = new TestPool(1, 60000, 100);
+        AdminClientPool.Key key = key("dmgr", "admin");
+        pool.lease(key);
+        try {
+            pool.lease(key);
+            fail("the second lease should have timed out");
+        } catch(DeploymentServiceException e) {
+            assertTrue(e.getMessage().contains("dmgr:8879"));
+        }
+    }
+
+    @Test
+    public void freesSlotHeldByIdleConnectionWithOtherCredentials() throws Exception {
+        TestPool pool = new TestPool(1, 60000, 100);
+        TestConnection other = (TestConnection) pool.lease(key("dmgr", "deployer"));
+        pool.release(other);
+
+        pool.lease(key("dmgr", "admin"));
+
+        assertTrue(other.closed.get());
+        assertEquals(1, pool.getEvictions());
+    }
+
+    @Test
+    public void releasesSlotWhenConnectFails() throws Exception {
+        TestPool pool = new TestPool(1, 60000, 100);
+        AdminClientPool.Key key = key("dmgr", "admin");
+        pool.failing = true;
+        try {
+            pool.lease(key);
+            fail("the connect should have failed");
+        } catch(DeploymentServiceException e) {
+            // expected
+        }
+        pool.failing = false;
+
+        pool.lease(key);
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void keysWithoutSslSettingsHaveNoProfile() {
+        assertNull(key("dmgr", "admin").getSslProfile());
+        assertEquals(sslKey("dmgr", "cell.jks").getSslProfile(), sslKey("dmgr2", "cell.jks").getSslProfile());
+        assertFalse(sslKey("dmgr", "cell.jks").getSslProfile().equals(sslKey("dmgr", "other.jks").getSslProfile()));
+    }
+
+    @Test
+    public void evictsIdleConnectionsWithOtherSslSettings() throws Exception {
+        TestPool pool = new TestPool(4, 60000, 1000);
+        TestConnection plain = (TestConnection) pool.lease(key("dmgr", "admin"));
+        TestConnection same = (TestConnection) pool.lease(sslKey("dmgr", "cell.jks"));
+        TestConnection other = (TestConnection) pool.lease(sslKey("dmgr", "other.jks"));
+        pool.release(plain);
+        pool.release(same);
+        pool.release(other);
+
+        assertEquals(1, pool.evictOtherSslProfiles(sslKey("dmgr", "cell.jks").getSslProfile()));
+
+        assertTrue(other.closed.get());
+        assertFalse(same.closed.get());
+        assertFalse(plain.closed.get());
+    }
+
+    @Test
+    public void concurrentLeasesStayWithinLimit() throws Exception {
+        final int limit = 4;
+        final TestPool pool = new TestPool(limit, 60000, 30000);
+        final AdminClientPool.Key[] keys = { key("dmgr", "admin"), key("dmgr", "deployer"), key("dmgr2", "admin") };
+        final AtomicInteger[] inUse = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger() };
+        final AtomicInteger exceeded = new AtomicInteger();
+        int threads = 32;
+        final int iterations = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for(int i = 0;i < threads;i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        for(int j = 0;j < iterations;j++) {
+                            int index = (thread + j) % keys.length;
+                            TestConnection connection = (TestConnection) pool.lease(keys[index]);
+                            // admin and deployer share one deployment manager
+                            int host = index == 2 ? 2 : 0;
+                            if(inUse[host].incrementAndGet() > limit) {
+                                exceeded.incrementAndGet();
+                            }
+                            if(!connection.leased.compareAndSet(false, true)) {
+                                throw new AssertionError("connection handed out twice");
+                            }
+                            assertFalse(connection.closed.get());
+                            Thread.yield();
+                            connection.leased.set(false);
+                            inUse[host].decrementAndGet();
+                            if(j % 50 == 0) {
+                                pool.invalidate(connection);
+                            } else {
+                                pool.release(connection);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> result:results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, exceeded.get());
+        assertTrue(pool.opened.get() - pool.closed.get() <= 2 * limit);
+        assertEquals(threads * iterations, pool.getHits() + pool.getMisses());
+    }
+
+    private static AdminClientPool.Key key(String host, String user) {
+        Properties config = new Properties();
+        config.put(AdminClient.CONNECTOR_TYPE, AdminClient.CONNECTOR_TYPE_SOAP);
+        config.put(AdminClient.CONNECTOR_HOST, host);
+        config.put(AdminClient.CONNECTOR_PORT, "8879");
+        config.put(AdminClient.USERNAME, user);
+        return new AdminClientPool.Key(config, false);
+    }
+
+    private static AdminClientPool.Key sslKey(String host, String trustStore) {
+        Properties config = new Properties();
+        config.put(AdminClient.CONNECTOR_TYPE, AdminClient.CONNECTOR_TYPE_SOAP);
+        config.put(AdminClient.CONNECTOR_HOST, host);
+        config.put(AdminClient.CONNECTOR_PORT, "8879");
+        config.put("com.ibm.ssl.trustStore", trustStore);
+        config.put("javax.net.ssl.trustStore", trustStore);
+        return new AdminClientPool.Key(config, false);
+    }
+
+    private static class TestPool extends AdminClientPool {
+
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+        private volatile boolean failing;
+
+        TestPool(int maxConnectionsPerHost, long idleTimeout, long leaseTimeout) {
+            super(maxConnectionsPerHost, idleTimeout, leaseTimeout);
+        }
+
+        @Override
+        AdminClientConnection open(Key key) throws Exception {
+            if(failing) {
+                throw new DeploymentServiceException("Unable to connect to "+key.getHost());
+            }
+            opened.incrementAndGet();
+            return new TestConnection(key, closed);
+        }
+    }
+
+    private static class TestConnection extends AdminClientConnection {
+
+        private final AtomicInteger closedCount;
+        private final AtomicBoolean leased = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean alive = true;
+
+        TestConnection(AdminClientPool.Key key, AtomicInteger closedCount) {
+            super(null, key);
+            this.closedCount = closedCount;
+        }
+
+        @Override
+        public boolean probe() {
+            return alive;
+        }
+
+        @Override
+        public void close() {
+            if(closed.compareAndSet(false, true)) {
+                closedCount.incrementAndGet();
+            }
+        }
+    }
+}
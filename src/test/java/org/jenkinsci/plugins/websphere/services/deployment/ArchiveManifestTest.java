@@ -0,0 +1,131 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void listsChangedAddedAndDeletedFilesOfWebModules() throws Exception {
+        ArchiveManifest previous = read(ear(folder.newFile(), war("index.jsp", "v1", "WEB-INF/classes/Old.class", "old")));
+        ArchiveManifest current = read(ear(folder.newFile(), war("index.jsp", "v2", "added.jsp", "new")));
+
+        ArchiveManifest.Changes changes = current.compareTo(previous);
+
+        assertEquals(Arrays.asList("shop.war/added.jsp", "shop.war/index.jsp"), changes.getChanged());
+        assertEquals(Arrays.asList("shop.war/WEB-INF/classes/Old.class"), changes.getDeleted());
+        assertEquals(Collections.singleton("shop.war"), changes.getChangedModules());
+        assertNull(changes.getFullUpdateReason());
+        assertNull(changes.getModuleUpdateReason());
+    }
+
+    @Test
+    public void findsNoChangesInTheSameContent() throws Exception {
+        ArchiveManifest previous = read(ear(folder.newFile(), war("index.jsp", "v1")));
+        ArchiveManifest current = read(ear(folder.newFile(), war("index.jsp", "v1")));
+
+        assertTrue(current.compareTo(previous).isEmpty());
+    }
+
+    @Test
+    public void fallsBackToFullUpdateWhenADescriptorChanges() throws Exception {
+        ArchiveManifest previous = read(ear(folder.newFile(), war("WEB-INF/web.xml", "<web-app/>")));
+        ArchiveManifest current = read(ear(folder.newFile(), war("WEB-INF/web.xml", "<web-app version=\"3.0\"/>")));
+
+        ArchiveManifest.Changes changes = current.compareTo(previous);
+
+        assertEquals("deployment descriptor 'shop.war/WEB-INF/web.xml' changed", changes.getFullUpdateReason());
+    }
+
+    @Test
+    public void fallsBackToFullUpdateWhenModulesChange() throws Exception {
+        File archive = ear(folder.newFile(), war("index.jsp", "v1"));
+        ArchiveManifest previous = ArchiveManifest.read(archive, new ArchiveMetadata());
+        ArchiveManifest current = read(archive);
+
+        ArchiveManifest.Changes changes = current.compareTo(previous);
+
+        assertEquals("the modules of the application changed", changes.getFullUpdateReason());
+        assertEquals("the modules of the application changed", changes.getModuleUpdateReason());
+    }
+
+    @Test
+    public void updatesApplicationFilesOnlyPartially() throws Exception {
+        ArchiveManifest previous = read(ear(folder.newFile(), war("index.jsp", "v1"), "lib/util.jar", "v1"));
+        ArchiveManifest current = read(ear(folder.newFile(), war("index.jsp", "v1"), "lib/util.jar", "v2"));
+
+        ArchiveManifest.Changes changes = current.compareTo(previous);
+
+        assertEquals(Arrays.asList("lib/util.jar"), changes.getChanged());
+        assertNull(changes.getFullUpdateReason());
+        assertNotNull(changes.getModuleUpdateReason());
+    }
+
+    static ArchiveManifest read(File archive) throws IOException {
+        ArchiveMetadata metadata = new ArchiveMetadata();
+        metadata.addModule(new ArchiveMetadata.Module("shop.war", ArchiveMetadata.MODULE_WEB, "/shop"));
+        return ArchiveManifest.read(archive, metadata);
+    }
+
+    /*
+     * Writes an EAR holding the WAR as shop.war, plus further entries given as name, content pairs
+     */
+    static File ear(File ear, byte[] war, String... entries) throws IOException {
+        Map<String,byte[]> content = new LinkedHashMap<String,byte[]>();
+        content.put("META-INF/application.xml", "<application/>".getBytes("UTF-8"));
+        content.put("shop.war", war);
+        for(int i=0;i<entries.length;i+=2) {
+            content.put(entries[i], entries[i+1].getBytes("UTF-8"));
+        }
+        FileOutputStream out = new FileOutputStream(ear);
+        try {
+            out.write(zip(content));
+        } finally {
+            out.close();
+        }
+        return ear;
+    }
+
+    static byte[] war(String... entries) throws IOException {
+        Map<String,byte[]> content = new LinkedHashMap<String,byte[]>();
+        for(int i=0;i<entries.length;i+=2) {
+            content.put(entries[i], entries[i+1].getBytes("UTF-8"));
+        }
+        return zip(content);
+    }
+
+    static byte[] zip(Map<String,byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream out = new ZipOutputStream(bytes);
+        try {
+            for(Map.Entry<String,byte[]> entry:entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+}
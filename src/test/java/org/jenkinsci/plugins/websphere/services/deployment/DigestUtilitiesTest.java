@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DigestUtilitiesTest {
+
+    private static final String ABC_SHA_256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void digestsStreamsAsSha256Hex() throws Exception {
+        assertEquals(ABC_SHA_256, DigestUtilities.digest(new ByteArrayInputStream("abc".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void digestsFilesLikeStreams() throws Exception {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("abc".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        assertEquals(ABC_SHA_256, DigestUtilities.digest(file));
+    }
+
+    @Test
+    public void keepsStringPartsApart() {
+        assertEquals(DigestUtilities.digest("ab", "c"), DigestUtilities.digest("ab", "c"));
+        assertFalse(DigestUtilities.digest("ab", "c").equals(DigestUtilities.digest("a", "bc")));
+        assertFalse(DigestUtilities.digest("abc").equals(DigestUtilities.digest("ab", "c")));
+    }
+}
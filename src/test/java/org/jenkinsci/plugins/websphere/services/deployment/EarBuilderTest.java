@@ -0,0 +1,71 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EarBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storesModulesUnchanged() throws Exception {
+        byte[] content = new byte[300 * 1024 + 17];
+        new Random(42).nextBytes(content);
+        File war = folder.newFile("shop.war");
+        FileOutputStream out = new FileOutputStream(war);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        File ear = folder.newFile("shop.ear");
+
+        new EarBuilder("<application/>").addModule(war).build(ear);
+
+        ZipFile zipFile = new ZipFile(ear);
+        try {
+            ZipEntry module = zipFile.getEntry("shop.war");
+            assertNotNull(module);
+            assertEquals(ZipEntry.STORED, module.getMethod());
+            assertEquals(content.length, module.getCompressedSize());
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            assertEquals(crc.getValue(), module.getCrc());
+            assertArrayEquals(content, read(zipFile, module));
+            assertEquals("<application/>", new String(read(zipFile, zipFile.getEntry("META-INF/application.xml")), "UTF-8"));
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileCacheTest {
+
+    //entries are keyed by digests in practice
+    private static final String A = DigestUtilities.digest("a");
+    private static final String B = DigestUtilities.digest("b");
+    private static final String C = DigestUtilities.digest("c");
+    private static final String MISSING = DigestUtilities.digest("missing");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sharesOneInstancePerDirectory() throws Exception {
+        File directory = folder.newFolder();
+
+        assertSame(FileCache.forDirectory(directory, ".ear", 10), FileCache.forDirectory(directory, ".ear", 10));
+    }
+
+    @Test
+    public void storesAndCopiesEntries() throws Exception {
+        FileCache cache = FileCache.forDirectory(new File(folder.getRoot(), "cache"), ".ear", 1024);
+        cache.put(A, "content".getBytes("UTF-8"));
+        File copy = new File(folder.getRoot(), "copy.ear");
+
+        assertTrue(cache.copyTo(A, copy));
+        assertEquals(7, copy.length());
+        assertFalse(cache.copyTo(MISSING, copy));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws Exception {
+        FileCache cache = FileCache.forDirectory(folder.newFolder(), ".ear", 15);
+        long now = System.currentTimeMillis();
+        assertTrue(cache.put(A, new byte[6]).setLastModified(now - 3000));
+        assertTrue(cache.put(B, new byte[6]).setLastModified(now - 2000));
+        assertNotNull(cache.get(A)); //now the most recently used
+
+        cache.put(C, new byte[6]);
+
+        assertNotNull(cache.get(A));
+        assertNull(cache.get(B));
+        assertNotNull(cache.get(C));
+    }
+
+    @Test
+    public void leavesOtherFilesAlone() throws Exception {
+        File directory = folder.newFolder();
+        File other = new File(directory, "other.txt");
+        assertTrue(other.createNewFile() && other.setLastModified(0));
+        FileCache cache = FileCache.forDirectory(directory, ".ear", 5);
+
+        cache.put(A, new byte[6]);
+
+        assertTrue(other.exists());
+        assertNull(cache.get(A));
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PartialApplicationBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void containsChangedFilesAndDeletionsPerModule() throws Exception {
+        File previous = ArchiveManifestTest.ear(folder.newFile(), ArchiveManifestTest.war("index.jsp", "v1", "WEB-INF/classes/Old.class", "old", "same.jsp", "same"), "lib/old.jar", "old");
+        File current = ArchiveManifestTest.ear(folder.newFile(), ArchiveManifestTest.war("index.jsp", "v2", "added.jsp", "new", "same.jsp", "same"));
+        ArchiveManifest manifest = ArchiveManifestTest.read(current);
+        ArchiveManifest.Changes changes = manifest.compareTo(ArchiveManifestTest.read(previous));
+        File partial = folder.newFile("partial.zip");
+
+        new PartialApplicationBuilder(current, manifest, changes).build(partial);
+
+        Map<String,String> entries = read(partial);
+        Map<String,String> expected = new TreeMap<String,String>();
+        expected.put("shop.war/index.jsp", "v2");
+        expected.put("shop.war/added.jsp", "new");
+        expected.put("shop.war/META-INF/ibm-partialapp-delete.props", "WEB-INF/classes/Old.class\n");
+        expected.put("META-INF/ibm-partialapp-delete.props", "lib/old.jar\n");
+        assertEquals(expected, entries);
+    }
+
+    private static Map<String,String> read(File archive) throws IOException {
+        Map<String,String> entries = new TreeMap<String,String>();
+        ZipFile zipFile = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while(zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                InputStream in = zipFile.getInputStream(entry);
+                try {
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while((read = in.read(buffer)) > 0) {
+                        content.write(buffer, 0, read);
+                    }
+                    entries.put(entry.getName(), content.toString("UTF-8"));
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.websphere.services.deployment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SystemPropertiesGuardTest {
+
+    @Test
+    public void keepsPropertiesUntilLastHolderReleases() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("javax.net.ssl.trustStore", "/original.jks");
+        SystemPropertiesGuard guard = new SystemPropertiesGuard(properties);
+
+        guard.acquire(null, 0);
+        properties.setProperty("javax.net.ssl.trustStore", "/cell.jks");
+        properties.setProperty("com.ibm.CORBA.ConfigURL", "file:/sas.client.props");
+        guard.acquire(null, 0);
+        guard.release(null);
+
+        assertEquals("/cell.jks", properties.getProperty("javax.net.ssl.trustStore"));
+        assertEquals("file:/sas.client.props", properties.getProperty("com.ibm.CORBA.ConfigURL"));
+
+        guard.release(null);
+
+        assertEquals("/original.jks", properties.getProperty("javax.net.ssl.trustStore"));
+        assertNull(properties.getProperty("com.ibm.CORBA.ConfigURL"));
+        assertEquals(0, guard.getHolders());
+    }
+
+    @Test
+    public void restoresRemovedProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("com.ibm.SSL.ConfigURL", "file:/ssl.client.props");
+        SystemPropertiesGuard guard = new SystemPropertiesGuard(properties);
+
+        guard.acquire(null, 0);
+        properties.remove("com.ibm.SSL.ConfigURL");
+        guard.release(null);
+
+        assertEquals("file:/ssl.client.props", properties.getProperty("com.ibm.SSL.ConfigURL"));
+    }
+
+    @Test
+    public void ignoresUnbalancedRelease() throws Exception {
+        Properties properties = new Properties();
+        SystemPropertiesGuard guard = new SystemPropertiesGuard(properties);
+
+        guard.release(null);
+        guard.acquire(null, 0);
+        properties.setProperty("changed", "true");
+        guard.release(null);
+        guard.release(null);
+
+        assertFalse(properties.containsKey("changed"));
+        assertEquals(0, guard.getHolders());
+    }
+
+    @Test
+    public void sharesSameSslProfile() throws Exception {
+        SystemPropertiesGuard guard = new SystemPropertiesGuard(new Properties());
+
+        assertTrue(guard.acquire("cell.jks", 0));
+        assertTrue(guard.acquire("cell.jks", 0));
+        assertTrue(guard.acquire(null, 0));
+
+        assertEquals(3, guard.getHolders());
+    }
+
+    @Test
+    public void keepsDifferentSslProfilesApart() throws Exception {
+        final SystemPropertiesGuard guard = new SystemPropertiesGuard(new Properties());
+        assertTrue(guard.acquire("cell.jks", 0));
+
+        assertTrue(guard.isBlocked("other.jks"));
+        assertFalse(guard.acquire("other.jks", 50));
+
+        Thread releaser = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch(InterruptedException e) {
+                    return;
+                }
+                guard.release("cell.jks");
+            }
+        };
+        releaser.start();
+        assertTrue(guard.acquire("other.jks", 10000));
+        releaser.join();
+        assertTrue(guard.isBlocked("cell.jks"));
+        assertEquals(1, guard.getHolders());
+    }
+
+    @Test
+    public void restoresPropertiesAfterConcurrentConnects() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("javax.net.ssl.trustStore", "/original.jks");
+        Map<Object,Object> original = new HashMap<Object,Object>(properties);
+        final SystemPropertiesGuard guard = new SystemPropertiesGuard(properties);
+        final Object createLock = new Object();
+        final String[] profiles = { null, "/cell1.jks", "/cell2.jks" };
+        final AtomicInteger[] active = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger() };
+        final AtomicInteger overlaps = new AtomicInteger();
+        int threads = 32;
+        final int iterations = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for(int i = 0;i < threads;i++) {
+                final int thread = i;
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        int index = thread % profiles.length;
+                        for(int j = 0;j < iterations;j++) {
+                            // what AdminClientConnection.open() and close() do around the IBM client
+                            assertTrue(guard.acquire(profiles[index], 60000));
+                            active[index].incrementAndGet();
+                            if(active[1].get() > 0 && active[2].get() > 0) {
+                                overlaps.incrementAndGet();
+                            }
+                            synchronized(createLock) {
+                                if(profiles[index] != null) {
+                                    properties.setProperty("javax.net.ssl.trustStore", profiles[index]);
+                                }
+                                properties.setProperty("client."+thread, String.valueOf(j));
+                            }
+                            Thread.yield();
+                            active[index].decrementAndGet();
+                            guard.release(profiles[index]);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for(Future<Void> result:results) {
+                result.get(120, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(0, guard.getHolders());
+        assertEquals(original, new HashMap<Object,Object>(properties));
+    }
+}
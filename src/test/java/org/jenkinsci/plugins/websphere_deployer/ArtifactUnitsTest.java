@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.websphere_deployer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.FilePath;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ArtifactUnitsTest {
+
+    private final FilePath ear = new FilePath(new File("target/orders.ear"));
+    private final FilePath shop = new FilePath(new File("target/shop.war"));
+    private final FilePath admin = new FilePath(new File("target/admin.war"));
+
+    @Test
+    public void deploysEveryArchiveOnItsOwnWithoutBundling() {
+        List<FilePath[]> units = ArtifactUnits.group(new FilePath[] {shop, ear, admin}, false);
+
+        assertEquals(3, units.size());
+        for(FilePath[] unit:units) {
+            assertEquals(1, unit.length);
+            assertFalse(ArtifactUnits.isBundle(unit, false));
+        }
+    }
+
+    @Test
+    public void bundlesAllWarsIntoOneUnit() {
+        List<FilePath[]> units = ArtifactUnits.group(new FilePath[] {shop, ear, admin}, true);
+
+        assertEquals(2, units.size());
+        assertArrayEquals(new FilePath[] {ear}, units.get(0));
+        assertFalse(ArtifactUnits.isBundle(units.get(0), true));
+        assertArrayEquals(new FilePath[] {shop, admin}, units.get(1));
+        assertTrue(ArtifactUnits.isBundle(units.get(1), true));
+    }
+
+    @Test
+    public void bundlesASingleWar() {
+        List<FilePath[]> units = ArtifactUnits.group(new FilePath[] {ear, shop}, true);
+
+        assertEquals(2, units.size());
+        assertArrayEquals(new FilePath[] {shop}, units.get(1));
+        assertTrue(ArtifactUnits.isBundle(units.get(1), true));
+    }
+}